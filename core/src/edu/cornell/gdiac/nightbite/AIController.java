@@ -5,11 +5,10 @@ import com.badlogic.gdx.math.GridPoint2;
 import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.*;
+import com.badlogic.gdx.utils.Pool;
 import edu.cornell.gdiac.nightbite.entity.*;
 import edu.cornell.gdiac.util.PooledList;
 
-import java.util.ArrayList;
-import java.util.List;
 
 public class AIController {
     /** Number of frames between each path replan */
@@ -22,39 +21,177 @@ public class AIController {
 
     /** Reference to the World that the AI is in. Needed to determine line of sight and AABB boxes. */
     private World world;
+    /** Model of the world, whose lattice answers line of sight before the physics engine is asked */
+    private WorldModel worldModel;
     /** Reference to the enemy that is being controlled */
     private HumanoidModel enemy;
+    /** Scheduler that paces path replanning across the world */
+    private ReplanScheduler scheduler;
 
     private PooledList<GridPoint2> target;
+    /** Recycled target points, so that retargeting every frame does not allocate */
+    private Pool<GridPoint2> targetPool;
     /** Where the AI was during path planning */
     private GridPoint2 positionCache;
+    /** AI class to ignore during path planning */
+    private int aiClass;
 
-    private PooledList<GridPoint2> targetPath;
+    private LatticePath targetPath;
     private Vector2 walkDirectionCache;
 
     private Vector2 cache;
+    /** Offset from the center line to each of the two parallel rays */
+    private Vector2 rayNormal;
+    private Vector2 rayStart;
+    private Vector2 rayEnd;
+    private VisionCallback visionCallback;
 
     /** Number of frames until the next path replan */
     private int replanCountdown;
 
+    /** Heuristic used when planning; NONE without diagonals is a plain BFS */
+    private AILattice.Heuristic heuristic = AILattice.Heuristic.NONE;
+    /** Whether planned paths may take diagonal steps */
+    private boolean diagonal;
+    /** Whether the path is read off the lattice's shared flow field instead of being planned */
+    private boolean followFlow;
+    /** How urgently replans are served */
+    private ReplanScheduler.Priority priority = ReplanScheduler.Priority.ROAM;
+    /** Whether a replan is waiting in the scheduler */
+    private boolean replanQueued;
+    /** Bumped by forceReplan, so that paths planned before it are known to be stale */
+    private int replanTicket;
+    /** Version of the lattice's danger layer when the path was last checked against it */
+    private int dangerVersion;
+
 
     public AIController(WorldModel worldModel, HumanoidModel enemy) {
         this.world = worldModel.getWorld();
+        this.worldModel = worldModel;
         this.enemy = enemy;
+        this.scheduler = worldModel.getReplanScheduler();
         target = new PooledList<>();
+        targetPool = new Pool<GridPoint2>() {
+            @Override
+            protected GridPoint2 newObject() {
+                return new GridPoint2();
+            }
+        };
         positionCache = new GridPoint2();
-        targetPath = new PooledList<>();
+        targetPath = new LatticePath();
         walkDirectionCache = new Vector2();
         cache = new Vector2();
+        rayNormal = new Vector2();
+        rayStart = new Vector2();
+        rayEnd = new Vector2();
+        visionCallback = new VisionCallback();
     }
 
     public void updateAI(AILattice lattice, Vector2 position, int aiClass) {
+        positionCache.set((int) position.x, (int) position.y);
+        this.aiClass = aiClass;
+
+        if (followFlow) {
+            // Reading the shared field is cheap, so there is no need to wait for a replan
+            lattice.followFlow(targetPath, target, positionCache, aiClass, enemy.getWidth() / 2);
+            return;
+        }
+
+        // A blast that turns up on the path is worth replanning for straight away
+        if (dangerVersion != lattice.getDangerVersion()) {
+            dangerVersion = lattice.getDangerVersion();
+            if (lattice.isDangerous(targetPath)) {
+                forceReplan();
+            }
+        }
+
         if (!replan()) {
             return;
         }
 
-        positionCache.set((int) position.x, (int) position.y);
-        lattice.findPath(targetPath, target, positionCache, aiClass);
+        scheduler.request(this);
+    }
+
+    /**
+     * Plans a path from where the AI last was to its current target.
+     * Called by the ReplanScheduler once this AI's request comes up.
+     */
+    public void plan(AILattice lattice) {
+        replanCountdown = REPLAN_TIME;
+        if (followFlow) {
+            return;
+        }
+        lattice.findPath(targetPath, target, positionCache, aiClass, heuristic, diagonal, enemy.getWidth() / 2);
+    }
+
+    /** Copies the current request into job, to be searched away from the game thread */
+    void describeRequest(ReplanScheduler.PlanJob job) {
+        job.clearGoals();
+        for (GridPoint2 t : target) {
+            job.addGoal(t.x, t.y);
+        }
+        job.start.set(positionCache);
+        job.ignore = aiClass;
+        job.halfWidth = enemy.getWidth() / 2;
+        job.heuristic = heuristic;
+        job.diagonal = diagonal;
+        job.ticket = replanTicket;
+    }
+
+    /**
+     * Receives a path planned by the scheduler on another thread. If a replan was forced while
+     * the path was being planned, it is used for now but replaced as soon as possible.
+     */
+    void deliver(LatticePath path, int ticket) {
+        replanCountdown = ticket == replanTicket ? REPLAN_TIME : 0;
+        if (!followFlow) {
+            targetPath.set(path);
+        }
+    }
+
+    public ReplanScheduler.Priority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(ReplanScheduler.Priority priority) {
+        this.priority = priority;
+    }
+
+    public boolean isReplanQueued() {
+        return replanQueued;
+    }
+
+    public void setReplanQueued(boolean queued) {
+        replanQueued = queued;
+    }
+
+    /**
+     * Sets whether this AI should follow the lattice's shared flow field toward its target.
+     * This pays off when many agents chase the same target, such as a player.
+     * <p>
+     * This is a state that lasts for the whole chase, not a per-frame switch. Leaving it makes a
+     * plan due on the next update, but does not make paths already being planned stale.
+     */
+    public void setFollowFlow(boolean followFlow) {
+        if (this.followFlow && !followFlow) {
+            replanCountdown = 0;
+        }
+        this.followFlow = followFlow;
+    }
+
+    public boolean isFollowingFlow() {
+        return followFlow;
+    }
+
+    /**
+     * Selects how this AI plans its paths.
+     *
+     * @param heuristic A* heuristic, or NONE for an uninformed search
+     * @param diagonal  Whether paths may take diagonal steps
+     */
+    public void setSearch(AILattice.Heuristic heuristic, boolean diagonal) {
+        this.heuristic = heuristic;
+        this.diagonal = diagonal;
     }
 
     public boolean canTarget(Vector2 source, Vector2 target, float dist) {
@@ -67,18 +204,25 @@ public class AIController {
         if (cache.set(source).sub(target).len2() <= 0) {
             return true;
         }
-        VisionCallback callback = new VisionCallback();
-        Vector2 normal = new Vector2(target).sub(source);
-        normal.set(-normal.y, normal.x).nor().scl(offset);
-
-        // Cast two parallel, offset rays
-        world.rayCast(callback, new Vector2(source).add(normal), new Vector2(target).add(normal));
-        world.rayCast(callback, new Vector2(source).sub(normal), new Vector2(target).sub(normal));
+        AILattice.Sight sight = tableSight(source, target, offset);
+        if (sight == AILattice.Sight.CLEAR) {
+            return true;
+        }
+        // The table does not know whether the occluder is within dist, unless the target is well inside it
+        if (sight == AILattice.Sight.BLOCKED && cache.len() + offset + 2 <= dist) {
+            return false;
+        }
+        sight = latticeSight(source, target, offset, dist);
+        if (sight != AILattice.Sight.UNCERTAIN) {
+            return sight == AILattice.Sight.CLEAR;
+        }
 
-        for (Body body : callback.seenBodies) {
-//            System.out.println(callback.seenBodies);
+        castRays(source, target, offset);
+        for (int i = 0; i < visionCallback.seen; i ++) {
+            Body body = visionCallback.seenBodies[i];
+            // Measure to where the ray hit, since one wall body may stretch far past it
             if (body.getUserData() instanceof ImmovableModel && !(body.getUserData() instanceof HoleModel)
-            && body.getPosition().sub(source).len() < dist) {
+            && visionCallback.seenPoints[i].dst(source) < dist) {
                 return false;
             }
         }
@@ -98,17 +242,18 @@ public class AIController {
         if (cache.set(source).sub(target).len2() <= 0) {
             return true;
         }
-        VisionCallback callback = new VisionCallback();
-        Vector2 normal = new Vector2(target).sub(source);
-        normal.set(-normal.y, normal.x).nor().scl(offset);
-
-        // Cast two parallel, offset rays
-        world.rayCast(callback, new Vector2(source).add(normal), new Vector2(target).add(normal));
-        world.rayCast(callback, new Vector2(source).sub(normal), new Vector2(target).sub(normal));
+        AILattice.Sight sight = tableSight(source, target, offset);
+        if (sight == AILattice.Sight.UNCERTAIN) {
+            sight = latticeSight(source, target, offset, Float.POSITIVE_INFINITY);
+        }
+        if (sight != AILattice.Sight.UNCERTAIN) {
+            return sight == AILattice.Sight.CLEAR;
+        }
 
-        for (Body body : callback.seenBodies) {
+        castRays(source, target, offset);
+        for (int i = 0; i < visionCallback.seen; i ++) {
 //            System.out.println(callback.seenBodies);
-            if (!body.getPosition().equals(target)) {
+            if (!visionCallback.seenBodies[i].getPosition().equals(target)) {
                 return false;
             }
         }
@@ -135,8 +280,78 @@ public class AIController {
         canvas.drawLine(x1, y1, x2, y2, color);
     }
 
+    /** Looks up the sight between the tiles of source and target in the lattice's visibility table */
+    private AILattice.Sight tableSight(Vector2 source, Vector2 target, float offset) {
+        AILattice lattice = worldModel.getAILattice();
+        if (lattice == null) {
+            return AILattice.Sight.UNCERTAIN;
+        }
+        return lattice.lookupSight(source.x, source.y, target.x, target.y, offset);
+    }
+
+    /**
+     * Tests the two parallel rays from source to target against the lattice's static occluders,
+     * which covers every tile aligned wall. Occluders closer than range to the start of a ray block it.
+     * UNCERTAIN means the rays cross an occluder that is not tile aligned, or that the lattice is not
+     * built yet, and the physics engine has to be asked.
+     */
+    private AILattice.Sight latticeSight(Vector2 source, Vector2 target, float offset, float range) {
+        AILattice lattice = worldModel.getAILattice();
+        if (lattice == null) {
+            return AILattice.Sight.UNCERTAIN;
+        }
+        setRayNormal(source, target, offset);
+
+        AILattice.Sight left = lattice.lineOfSight(source.x + rayNormal.x, source.y + rayNormal.y,
+                target.x + rayNormal.x, target.y + rayNormal.y, range);
+        if (left == AILattice.Sight.BLOCKED) {
+            return left;
+        }
+        AILattice.Sight right = lattice.lineOfSight(source.x - rayNormal.x, source.y - rayNormal.y,
+                target.x - rayNormal.x, target.y - rayNormal.y, range);
+        if (right == AILattice.Sight.BLOCKED) {
+            return right;
+        }
+        return left == AILattice.Sight.CLEAR && right == AILattice.Sight.CLEAR
+                ? AILattice.Sight.CLEAR : AILattice.Sight.UNCERTAIN;
+    }
+
+    /** Casts two parallel, offset rays from source to target through the physics world */
+    private void castRays(Vector2 source, Vector2 target, float offset) {
+        visionCallback.clear();
+        setRayNormal(source, target, offset);
+        world.rayCast(visionCallback, rayStart.set(source).add(rayNormal), rayEnd.set(target).add(rayNormal));
+        world.rayCast(visionCallback, rayStart.set(source).sub(rayNormal), rayEnd.set(target).sub(rayNormal));
+    }
+
+    private void setRayNormal(Vector2 source, Vector2 target, float offset) {
+        rayNormal.set(target).sub(source);
+        rayNormal.set(-rayNormal.y, rayNormal.x).nor().scl(offset);
+    }
+
     static class VisionCallback implements RayCastCallback {
-        List<Body> seenBodies = new ArrayList<>();
+        /** Each ray stops at the first body it hits, and at most two are cast at once */
+        private static final int CAPACITY = 2;
+
+        Body[] seenBodies = new Body[CAPACITY];
+        /** Where each of seenBodies was hit. Reused from cast to cast, so nothing is allocated per hit */
+        Vector2[] seenPoints = new Vector2[CAPACITY];
+        /** Number of entries of seenBodies and seenPoints that are in use */
+        int seen;
+
+        VisionCallback() {
+            for (int i = 0; i < CAPACITY; i ++) {
+                seenPoints[i] = new Vector2();
+            }
+        }
+
+        /** Forgets every hit, keeping the vectors for the next cast */
+        void clear() {
+            for (int i = 0; i < seen; i ++) {
+                seenBodies[i] = null;
+            }
+            seen = 0;
+        }
 
         // TODO: The current method of ray casting doesn't account for thrown firecrackers, and they momentarily block
         // line of sight between the enemy and the player.
@@ -150,96 +365,82 @@ public class AIController {
             if (fixture.getBody().getUserData() instanceof HumanoidModel) return 1;
 
             // Stop the ray and record the position of the body with which it impacted
-            seenBodies.add(fixture.getBody());
-            return 0;
-        }
-    }
-
-    /**
-     * Callback for AABB query of nearby players
-     * For use with canDetectPlayer()
-     */
-    static class DetectionCallback implements QueryCallback {
-        ArrayList<Body> foundBodies = new ArrayList<>();
-
-        @Override
-        public boolean reportFixture(Fixture fixture) {
-            Body body = fixture.getBody();
-            if (body.getUserData() instanceof PlayerModel) {
-                foundBodies.add(fixture.getBody());
+            if (seen < CAPACITY) {
+                seenBodies[seen] = fixture.getBody();
+                seenPoints[seen].set(point);
+                seen ++;
             }
-            return true;
+            return 0;
         }
     }
 
-    /** Return true if a player is within DETECTION_RADIUS from enemy's origin position */
+    /** Return true if a living player is within DETECTION_RADIUS from enemy's origin position */
     public boolean canDetectPlayer() {
         Vector2 pos = enemy.getHomePosition();
-        DetectionCallback callback = new DetectionCallback();
-        world.QueryAABB(callback, pos.x-DETECTION_RADIUS, pos.y-DETECTION_RADIUS, pos.x+DETECTION_RADIUS, pos.y+DETECTION_RADIUS);
-        return callback.foundBodies.size() > 0;
+        return worldModel.getPerception().anyWithinBox(pos.x, pos.y, DETECTION_RADIUS);
     }
 
+    /** Return true if a living player is within CHASE_RADIUS from enemy's origin position */
     public boolean canChasePlayer() {
         Vector2 pos = enemy.getHomePosition();
-        DetectionCallback callback = new DetectionCallback();
-        world.QueryAABB(callback, pos.x-CHASE_RADIUS, pos.y-CHASE_RADIUS, pos.x+CHASE_RADIUS, pos.y+CHASE_RADIUS);
-        return callback.foundBodies.size() > 0;
+        return worldModel.getPerception().anyWithinBox(pos.x, pos.y, CHASE_RADIUS);
     }
 
+    /** Whether a replan is due; the countdown restarts once the scheduler serves it */
     private boolean replan() {
         if (replanCountdown > 0) {
             replanCountdown --;
             return false;
         }
-        replanCountdown = REPLAN_TIME;
         return true;
     }
 
     public void clearTarget() {
-        target.clear();
+        while (!target.isEmpty()) {
+            targetPool.free(target.poll());
+        }
     }
 
     public void setTarget(GridPoint2 t) {
-        this.target.clear();
-        target.add(new GridPoint2(t.x, t.y));
+        clearTarget();
+        addTarget(t.x, t.y);
     }
 
     public void setTarget(Vector2 t) {
-        this.target.clear();
-        target.add(new GridPoint2((int) t.x, (int) t.y));
+        clearTarget();
+        addTarget((int) t.x, (int) t.y);
     }
 
     public void setTarget(Iterable<GridPoint2> targets) {
-        target.clear();
+        clearTarget();
         for (GridPoint2 t : targets) {
-            target.add(new GridPoint2(t));
+            addTarget(t.x, t.y);
         }
     }
 
     public void setTargetVectors(Iterable<Vector2> targets) {
-        target.clear();
+        clearTarget();
         for (Vector2 t : targets) {
-            target.add(new GridPoint2((int)t.x, (int)t.y));
+            addTarget((int) t.x, (int) t.y);
         }
     }
 
     public void setDetectionRadius(float radius) { DETECTION_RADIUS = radius; }
 
     public void addTarget(GridPoint2 target) {
-        target.add(new GridPoint2(target));
+        addTarget(target.x, target.y);
     }
 
     public void addTarget(Vector2 target) {
-        this.target.add(new GridPoint2((int) target.x, (int) target.y));
+        addTarget((int) target.x, (int) target.y);
     }
 
     public void addTarget(int x, int y) {
-        target.add(new GridPoint2(x, y));
+        target.add(targetPool.obtain().set(x, y));
     }
 
     public void addTarget(float x, float y) {
-        target.add(new GridPoint2((int) x, (int) y));
+        addTarget((int) x, (int) y);
     }
 
     public Vector2 getMove(Rectangle feet) {
@@ -248,12 +449,23 @@ public class AIController {
 
     public void forceReplan() {
         replanCountdown = 0;
+        replanTicket ++;
     }
 
     private boolean bounded(float val, float min, float max) {
         return val >= min && val < max;
     }
 
+    /**
+     * Adjusts dir, the normalized direction toward the next node, so that the AI sidesteps the
+     * agents walking around it instead of bumping into them.
+     *
+     * @return dir, for chaining
+     */
+    public Vector2 avoid(Vector2 dir) {
+        return worldModel.getAvoidance().adjust(enemy, dir, worldModel.getNeighbours());
+    }
+
     public Vector2 vectorToNode(Vector2 feet, AILattice aiLattice, int aiClass) {
         return vectorToNode(feet, aiLattice, aiClass, false);
     }
@@ -271,13 +483,13 @@ public class AIController {
             }
         }
 
-        if (bounded(feet.x, targetPath.getHead().x + 0.5f - 0.2f, targetPath.getHead().x + 0.5f + 0.2f)
-                && bounded(feet.y, targetPath.getHead().y + 0.5f - 0.1f, targetPath.getHead().y + 0.5f + 0.1f))
+        if (bounded(feet.x, targetPath.getHeadX() + 0.5f - 0.2f, targetPath.getHeadX() + 0.5f + 0.2f)
+                && bounded(feet.y, targetPath.getHeadY() + 0.5f - 0.1f, targetPath.getHeadY() + 0.5f + 0.1f))
         {
             targetPath.poll();
             return Vector2.Zero;
         }
-        walkDirectionCache.set(targetPath.getHead().x + 0.5f, targetPath.getHead().y + 0.5f).sub(feet);
+        walkDirectionCache.set(targetPath.getHeadX() + 0.5f, targetPath.getHeadY() + 0.5f).sub(feet);
         return walkDirectionCache;
     }
 
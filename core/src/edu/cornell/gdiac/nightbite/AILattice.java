@@ -2,40 +2,449 @@ package edu.cornell.gdiac.nightbite;
 
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.math.GridPoint2;
+import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.Pool;
+import edu.cornell.gdiac.nightbite.entity.HoleModel;
 import edu.cornell.gdiac.nightbite.entity.HumanoidModel;
 import edu.cornell.gdiac.nightbite.entity.ImmovableModel;
+import edu.cornell.gdiac.nightbite.entity.WallModel;
 import edu.cornell.gdiac.nightbite.obstacle.Obstacle;
-import edu.cornell.gdiac.util.PooledList;
+
+import java.util.Arrays;
 
 
 public class AILattice {
     private static final int NUM_CLASSES = 5;
+    /** Occupancy bits for every class at once */
+    private static final int ALL_CLASSES = (1 << NUM_CLASSES) - 1;
+    /** Cells packed into each occupancy word, one byte lane apiece */
+    private static final int CELLS_PER_WORD = 8;
+    /** Cost of a straight step in A* searches */
+    private static final int STRAIGHT_COST = 10;
+    /** Cost of a diagonal step in A* searches, roughly sqrt(2) * STRAIGHT_COST */
+    private static final int DIAGONAL_COST = 14;
+    /** Most extra cost, in straight steps, of leaving a cell. Larger totals are clamped. */
+    public static final int MAX_CELL_COST = 15;
+    /** Extra cost of leaving a cell in the blast of a firecracker */
+    private static final int DANGER_COST = MAX_CELL_COST;
+    /** Cells from the center of a blast, in each direction, that it reaches */
+    private static final int DANGER_RADIUS = 1;
+    /** Buckets of the bucket queue, enough for the costliest straight step */
+    private static final int NUM_BUCKETS = MAX_CELL_COST + 2;
+
+    /** Maximum number of flow fields kept around at once */
+    private static final int MAX_FLOW_FIELDS = 8;
+    /** Most search results remembered by a lattice */
+    private static final int MAX_CACHED_PATHS = 32;
+    /** Distance of a cell that cannot reach the goals of a flow field */
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    /** Opacity of a cell that nothing hides */
+    private static final byte TRANSPARENT = 0;
+    /** Opacity of a cell that an occluder covers completely */
+    private static final byte OPAQUE = 1;
+    /** Opacity of a cell that an occluder covers only in part */
+    private static final byte PARTIAL = 2;
+    /** How far an occluder's edge may be from a cell border and still count as aligned */
+    private static final float ALIGN_EPSILON = 1e-3f;
+    // Layers that lines can be traced on: the opacity layer, the static map, and the static map
+    // together with dynamic occupancy
+    private static final int TRACE_SIGHT = 0;
+    private static final int TRACE_STATIC = 1;
+    private static final int TRACE_OCCUPIED = 2;
+    /** Half width of agents that do not give their own, about that of a humanoid */
+    private static final float DEFAULT_HALF_WIDTH = 0.3f;
+    /** Largest lattice, in cells, that gets a visibility table, as the table grows with the square */
+    private static final int MAX_VISIBILITY_CELLS = 1024;
+    /** Largest lattice, in cells, that gets a next hop table, as the table grows with the square */
+    private static final int MAX_NEXT_HOP_CELLS = 1024;
+    /** Next hop entry for a cell that cannot reach the goal, or is the goal */
+    private static final byte NO_HOP = -1;
+
+    /** Neighbour offsets: the four straight steps first, then the four diagonals */
+    private static final int[] DX = {1, -1, 0, 0, 1, 1, -1, -1};
+    private static final int[] DY = {0, 0, 1, -1, 1, -1, 1, -1};
+
+    /**
+     * Heuristic used by findPath.
+     * <p>
+     * NONE without diagonals is a plain breadth first search. MANHATTAN overestimates once
+     * diagonal steps are allowed, which trades shortest paths for fewer expanded cells.
+     */
+    public enum Heuristic {
+        NONE,
+        MANHATTAN,
+        OCTILE
+    }
+
+    /** Result of a line of sight test on the lattice */
+    public enum Sight {
+        CLEAR,
+        BLOCKED,
+        /** Nothing opaque is in the way, but the line crosses cells only partly covered by occluders */
+        UNCERTAIN
+    }
 
-    private boolean[][] staticMap;
-    private boolean[][][] dynamicMap;
+    private boolean[] staticMap;
+    /**
+     * Chebyshev distance, in cells, from each cell to the nearest static cell or the edge of the
+     * lattice. An agent standing at the center of a cell has clearance - 0.5 of room on every side.
+     * Shared with replicas, as it only changes with the static map.
+     */
+    private byte[] clearance;
+    /** Connected region of the static map each cell belongs to, or -1 for static cells */
+    private int[] component;
+    /** How each cell hides what is behind it: TRANSPARENT, OPAQUE or PARTIAL */
+    private byte[] opacity;
+    // Static sight between cell centers, for every ordered pair of cells. Bit a * cells + b is
+    // set in visible when b is in clear sight from a, and in sightUnknown when the rays from a
+    // to b cross partly covered cells.
+    private long[] visible;
+    private long[] sightUnknown;
+    /** Ray offset the visibility table was built for */
+    private float visibilityOffset;
+    /**
+     * Direction, as an index into DX and DY, of the first step on a shortest straight path over the
+     * static map from cell c to cell g, at g * cells + c. Shared with replicas, as it never changes.
+     */
+    private byte[] nextHop;
+    /** Cells of the path being walked off the next hop table */
+    private int[] route;
+    private int routeLength;
+    /** Abstract graph for planning across lattices too large for a next hop table */
+    private ClusterGraph clusters;
+    /** Cells a plan on the cluster graph passes through */
+    private IntArray waypoints;
+    /** Start and goal of one leg between waypoints */
+    private GridPoint2 legStart;
+    private Array<GridPoint2> legGoal;
+    // The dynamic map keeps one occupancy bitset per AI class, interleaved so that the class bits
+    // of a cell sit together in one byte lane. Testing a cell against every class but one is then a
+    // single masked read. Counts per class and cell let overlapping obstacles of one class come and
+    // go independently.
+    /** Class bits of every cell, CELLS_PER_WORD cells to a word */
+    private long[] occupancy;
+    /** Number of obstacles of each class stamped on each cell, indexed by cell * NUM_CLASSES + class */
+    private short[] occupants;
+    // Weighted cells cost extra steps to leave, which searches trade against distance. Costs are
+    // added and removed by whatever makes the cell unpleasant, like spilled oil. Density is the
+    // cost of being near an occupant of densityClass, which that class itself does not pay.
+    // Danger is the cost of standing where a firecracker is about to blast.
+    /** Extra cost of leaving each cell, summed over every source */
+    private short[] cost;
+    /** Extra cost of leaving each cell from the occupants of densityClass around it */
+    private short[] density;
+    private int densityClass = -1;
+    private int densityCost;
+    /** Number of blasts about to go off over each cell, each costing DANGER_COST */
+    private short[] danger;
+    /** Number of cells with any cost, density or danger, so that unweighted lattices keep to the plain searches */
+    private int weightedCells;
     private int numW;
     private int numH;
-    private PooledList<Node> tempQueue;
 
-    private static class Node {
-        int x;
-        int y;
-        Node back;
+    // Search scratch space, allocated once per lattice and reused by every search.
+    // A cell counts as visited (or as a goal) when its stamp equals the current
+    // generation, so starting a new search is a single increment instead of a clear.
+    /** Generation of the current search */
+    private int generation;
+    private int[] visitStamp;
+    private int[] goalStamp;
+    /** Cell that each visited cell was reached from, or -1 for the start */
+    private int[] parent;
+    /** Ring buffer of cell indices waiting to be expanded */
+    private int[] queue;
+    private int queueTail;
+
+    // A* scratch space, valid for a cell only while its visitStamp is the current generation
+    private int[] gScore;
+    private int[] fScore;
+    private int[] closedStamp;
+    /** Binary min-heap of open cells, ordered by fScore */
+    private int[] heap;
+    private int heapSize;
+    /** Position of each open cell inside heap */
+    private int[] heapIndex;
+    // Bucket queue scratch space. Open cells with cost g sit in bucket g % NUM_BUCKETS, in doubly
+    // linked lists threaded through bucketNext and bucketPrev, so a cost can be lowered in place.
+    private int[] bucketHead;
+    private int[] bucketNext;
+    private int[] bucketPrev;
+    /** Clearance that the current search needs of every cell it enters, other than goals */
+    private int clearanceNeeded = 1;
+    /** Goal cells of the current search, for evaluating the heuristic */
+    private int[] goalX;
+    private int[] goalY;
+    private int numGoals;
+
+    /** Number of cells expanded by every search so far, for budgeting */
+    private long expansions;
+
+    /** Number of ticks so far, used to find the flow field that has gone unused the longest */
+    private int tick;
+    /** Bumped whenever the static map changes */
+    private int staticVersion;
+    /** For a replica, the static version of the lattice its static tables were last taken from */
+    private int replicaStaticVersion = -1;
+    /** Bumped whenever the dynamic map changes */
+    private int dynamicVersion;
+    /** Bumped whenever a cell stops being occupied by some class, which may open a shorter route */
+    private int freedVersion;
+    /** Bumped whenever the cost of a cell changes, including through crowd density */
+    private int costVersion;
+    /** Bumped whenever a blast is added to or removed from the danger layer */
+    private int dangerVersion;
+    /** Most recently published snapshot */
+    private Snapshot snapshot;
+    private Pool<Snapshot> snapshotPool;
+
+    private FlowField[] flowFields;
+    private int numFlowFields;
+
+    private CachedPath[] cachedPaths;
+    private int numCachedPaths;
+    /** Counts cache lookups, to find the least recently used result */
+    private int cacheClock;
+    private long cacheHits;
+
+    /**
+     * Copy of the static and dynamic maps at some version, for searching on another thread.
+     * <p>
+     * The arrays are never written while anyone holds the snapshot. Snapshots are reference
+     * counted on the game thread through retain/release, and recycled once nobody holds them.
+     */
+    public static class Snapshot {
+        private boolean[] staticMap;
+        private long[] occupancy;
+        private short[] cost;
+        private short[] density;
+        private short[] danger;
+        private int weightedCells;
+        private int staticVersion;
+        private int dynamicVersion;
+        private int freedVersion;
+        private int costVersion;
+        private int users;
 
-        public Node(int x, int y, Node back) {
-            this.x = x;
-            this.y = y;
-            this.back = back;
+        public int getVersion() {
+            return staticVersion + dynamicVersion + costVersion;
         }
     }
 
+    /**
+     * Distance from every cell to the nearest of a set of goal cells, shared by every agent of
+     * one class that walks toward the same goals (usually the four cells around a player).
+     * <p>
+     * A field is reused until any of the maps change. When the goals move, a field for the new
+     * goals is looked up or built instead.
+     */
+    private static class FlowField {
+        int[] goals = new int[4];
+        int numGoals;
+        int ignore;
+        int clearance;
+        int[] dist;
+        /** Versions of the maps the distances were computed against */
+        int staticVersion;
+        int dynamicVersion;
+        int costVersion;
+        int dangerVersion;
+        /** Tick the field was last read on, for eviction */
+        int usedTick;
+
+        FlowField(int size) {
+            dist = new int[size];
+        }
+    }
+
+    /**
+     * Result of one findPath call, which answers identical calls until the maps change.
+     * <p>
+     * The path stays good while the static map and costs are unchanged, none of its cells become
+     * occupied, and no cell anywhere is freed. Obstacles that only arrive cannot make a route
+     * shorter, but one that moves away may open a shorter route or a route where there was none.
+     */
+    private static class CachedPath {
+        int start;
+        int[] goals = new int[4];
+        int numGoals;
+        /** Hash of the goal set, which does not depend on the order of the goals */
+        int goalHash;
+        int ignore;
+        int clearance;
+        Heuristic heuristic;
+        boolean diagonal;
+        int staticVersion;
+        int dynamicVersion;
+        int freedVersion;
+        int costVersion;
+        final LatticePath path = new LatticePath();
+        /** Value of cacheClock when the result was last used, for eviction */
+        int usedClock;
+    }
+
     public AILattice(int w, int h) {
         numW = w;
         numH = h;
-        staticMap = new boolean [w][h];
-        dynamicMap = new boolean[NUM_CLASSES][w][h];
-        tempQueue = new PooledList<>();
+        staticMap = new boolean[w * h];
+        component = new int[w * h];
+        clearance = new byte[w * h];
+        opacity = new byte[w * h];
+        occupancy = new long[(w * h + CELLS_PER_WORD - 1) / CELLS_PER_WORD];
+        occupants = new short[w * h * NUM_CLASSES];
+        cost = new short[w * h];
+        density = new short[w * h];
+        danger = new short[w * h];
+
+        visitStamp = new int[w * h];
+        goalStamp = new int[w * h];
+        parent = new int[w * h];
+        queue = new int[w * h];
+        route = new int[w * h];
+        waypoints = new IntArray();
+        legStart = new GridPoint2();
+        legGoal = new Array<>();
+        legGoal.add(new GridPoint2());
+
+        gScore = new int[w * h];
+        fScore = new int[w * h];
+        closedStamp = new int[w * h];
+        heap = new int[w * h];
+        heapIndex = new int[w * h];
+        bucketHead = new int[NUM_BUCKETS];
+        bucketNext = new int[w * h];
+        bucketPrev = new int[w * h];
+        goalX = new int[4];
+        goalY = new int[4];
+
+        flowFields = new FlowField[MAX_FLOW_FIELDS];
+        cachedPaths = new CachedPath[MAX_CACHED_PATHS];
+        snapshotPool = new Pool<Snapshot>() {
+            @Override
+            protected Snapshot newObject() {
+                Snapshot s = new Snapshot();
+                s.staticMap = new boolean[numW * numH];
+                s.occupancy = new long[occupancy.length];
+                s.cost = new short[numW * numH];
+                s.density = new short[numW * numH];
+                s.danger = new short[numW * numH];
+                return s;
+            }
+        };
+    }
+
+    /** Version of the static and dynamic maps and the cell costs, which changes whenever any of them does */
+    public int getVersion() {
+        return staticVersion + dynamicVersion + costVersion;
+    }
+
+    public int getStaticVersion() {
+        return staticVersion;
+    }
+
+    public int getDynamicVersion() {
+        return dynamicVersion;
+    }
+
+    public int getCostVersion() {
+        return costVersion;
+    }
+
+    public int getDangerVersion() {
+        return dangerVersion;
+    }
+
+    /** Number of findPath calls answered from the cache of earlier results */
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    /**
+     * Returns a snapshot of the current maps, copying them only if they changed since the last one.
+     * The caller must retain the snapshot for as long as it uses it.
+     */
+    public Snapshot publishSnapshot() {
+        if (snapshot != null && snapshot.staticVersion == staticVersion
+                && snapshot.dynamicVersion == dynamicVersion && snapshot.costVersion == costVersion) {
+            return snapshot;
+        }
+        if (snapshot != null) {
+            release(snapshot);
+        }
+        snapshot = snapshotPool.obtain();
+        System.arraycopy(staticMap, 0, snapshot.staticMap, 0, staticMap.length);
+        System.arraycopy(occupancy, 0, snapshot.occupancy, 0, occupancy.length);
+        System.arraycopy(cost, 0, snapshot.cost, 0, cost.length);
+        System.arraycopy(density, 0, snapshot.density, 0, density.length);
+        System.arraycopy(danger, 0, snapshot.danger, 0, danger.length);
+        snapshot.weightedCells = weightedCells;
+        snapshot.staticVersion = staticVersion;
+        snapshot.dynamicVersion = dynamicVersion;
+        snapshot.freedVersion = freedVersion;
+        snapshot.costVersion = costVersion;
+        // The lattice holds on to its latest snapshot
+        snapshot.users = 1;
+        return snapshot;
+    }
+
+    public void retain(Snapshot s) {
+        s.users ++;
+    }
+
+    public void release(Snapshot s) {
+        s.users --;
+        if (s.users == 0) {
+            snapshotPool.free(s);
+        }
+    }
+
+    /**
+     * Creates a lattice of the same size with its own search space, which can search
+     * snapshots of this lattice from another thread after adopt().
+     */
+    public AILattice createReplica() {
+        AILattice replica = new AILattice(numW, numH);
+        refreshReplica(replica);
+        return replica;
+    }
+
+    /**
+     * Points a replica at the tables this lattice rebuilds when its static map changes. A replica
+     * kept between searches must be refreshed before each one, or it may search with stale tables.
+     */
+    public void refreshReplica(AILattice replica) {
+        replica.nextHop = nextHop;
+        replica.clearance = clearance;
+        replica.densityClass = densityClass;
+        if (replica.replicaStaticVersion != staticVersion) {
+            replica.clusters = clusters == null ? null : new ClusterGraph(clusters);
+            replica.replicaStaticVersion = staticVersion;
+        }
+    }
+
+    /**
+     * Searches on this lattice will see the maps of snapshot s from now on. This lattice
+     * must be a replica, since the maps are shared with the snapshot rather than copied.
+     */
+    public void adopt(Snapshot s) {
+        staticMap = s.staticMap;
+        occupancy = s.occupancy;
+        cost = s.cost;
+        density = s.density;
+        danger = s.danger;
+        weightedCells = s.weightedCells;
+        staticVersion = s.staticVersion;
+        dynamicVersion = s.dynamicVersion;
+        freedVersion = s.freedVersion;
+        costVersion = s.costVersion;
+    }
+
+    /** Flat index of the cell (x, y) */
+    private int cell(int x, int y) {
+        return x + y * numW;
     }
 
     public void populateStatic(Iterable<Obstacle> objects) {
@@ -49,23 +458,307 @@ public class AILattice {
             for (int tx = x; tx < x + width; tx ++) {
                 for (int ty = y; ty < y + height; ty ++) {
                     if (bounded(tx, 0, numW) && bounded(ty, 0, numH)) {
-                        staticMap[tx][ty] = true;
+                        staticMap[cell(tx, ty)] = true;
                     }
                 }
             }
+            stampOpacity(o);
         }
-        for (int x = 0; x < numW; x ++) {
-            for (int y = 0; y < numH; y ++) {
-//                System.out.print(staticMap[x][y]);
+        labelComponents();
+        clearance = new byte[numW * numH];
+        buildClearance();
+        staticVersion ++;
+
+        // Tables built from the old map are stale
+        visible = null;
+        sightUnknown = null;
+        nextHop = null;
+        clusters = numW * numH > MAX_NEXT_HOP_CELLS ? new ClusterGraph(staticMap, numW, numH) : null;
+    }
+
+    /**
+     * Builds the next hop table with one reverse breadth first search per open cell, after which
+     * straight-step searches only search around dynamic obstacles. Lattices larger than
+     * MAX_NEXT_HOP_CELLS go without one. Called once the static map is populated.
+     */
+    public void buildNextHops() {
+        int n = numW * numH;
+        if (n > MAX_NEXT_HOP_CELLS) {
+            nextHop = null;
+            return;
+        }
+        nextHop = new byte[n * n];
+        Arrays.fill(nextHop, NO_HOP);
+
+        for (int g = 0; g < n; g ++) {
+            if (staticMap[g]) {
+                continue;
+            }
+            int base = g * n;
+            int queueHead = 0;
+            queueTail = 0;
+            queue[queueTail ++] = g;
+            while (queueHead != queueTail) {
+                int c = queue[queueHead ++];
+                int x = c % numW;
+                int y = c / numW;
+                for (int d = 0; d < 4; d ++) {
+                    int m = boundedCell(x + DX[d], y + DY[d]);
+                    if (m >= 0 && m != g && !staticMap[m] && nextHop[base + m] == NO_HOP) {
+                        // Straight directions come in opposite pairs, so d ^ 1 steps from m back to c
+                        nextHop[base + m] = (byte) (d ^ 1);
+                        queue[queueTail ++] = m;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the cells that o hides from sight. Holes only stop walking, so they are skipped.
+     * An occluder that does not line up with cell borders marks the cells it touches PARTIAL,
+     * and lines of sight through them are left to the physics engine.
+     */
+    private void stampOpacity(Obstacle o) {
+        if (!(o instanceof ImmovableModel) || o instanceof HoleModel) {
+            return;
+        }
+        ImmovableModel m = (ImmovableModel) o;
+        float quarters = m.getAngle() / (MathUtils.PI / 2);
+        int turns = Math.round(quarters);
+        boolean aligned = Math.abs(quarters - turns) < ALIGN_EPSILON;
+
+        float width = turns % 2 == 0 ? m.getWidth() : m.getHeight();
+        float height = turns % 2 == 0 ? m.getHeight() : m.getWidth();
+        float left = m.getX() - width / 2;
+        float right = m.getX() + width / 2;
+        float bottom = m.getY() - height / 2;
+        float top = m.getY() + height / 2;
+        if (o instanceof WallModel && ((WallModel) o).onlyBottom) {
+            // Only the bottom half of a tall wall has a fixture
+            top = m.getY();
+            aligned &= turns == 0;
+        }
+        aligned &= isAligned(left) && isAligned(right) && isAligned(bottom) && isAligned(top);
+
+        byte mark = aligned ? OPAQUE : PARTIAL;
+        for (int tx = MathUtils.floor(left + ALIGN_EPSILON); tx < MathUtils.ceil(right - ALIGN_EPSILON); tx ++) {
+            for (int ty = MathUtils.floor(bottom + ALIGN_EPSILON); ty < MathUtils.ceil(top - ALIGN_EPSILON); ty ++) {
+                if (bounded(tx, 0, numW) && bounded(ty, 0, numH) && opacity[cell(tx, ty)] != OPAQUE) {
+                    opacity[cell(tx, ty)] = mark;
+                }
+            }
+        }
+    }
+
+    private boolean isAligned(float edge) {
+        return Math.abs(edge - Math.round(edge)) < ALIGN_EPSILON;
+    }
+
+    /**
+     * Tests whether the segment from (x0, y0) to (x1, y1) is hidden by a static occluder.
+     * <p>
+     * Every cell the segment touches is walked, including both sides of a corner it passes
+     * exactly through. Only cells whose centers are closer than range to (x0, y0) can block.
+     * The start cell is skipped, as a ray is not stopped by the body it leaves from, and cells
+     * off the lattice are opaque, as the level is walled in.
+     */
+    public Sight lineOfSight(float x0, float y0, float x1, float y1, float range) {
+        return traceLine(x0, y0, x1, y1, range, TRACE_SIGHT, -1);
+    }
+
+    /**
+     * Whether an agent of half width halfWidth can walk in a straight line from (x0, y0) to
+     * (x1, y1) without touching a static cell. Parallel lines no more than a cell apart are
+     * traced across the agent's width, so that no static cell can slip between them.
+     */
+    public boolean isStraightWalkable(float x0, float y0, float x1, float y1, float halfWidth) {
+        return isStraightClear(x0, y0, x1, y1, halfWidth, TRACE_STATIC, -1);
+    }
+
+    /** Same as isStraightWalkable, but on the given trace layer */
+    private boolean isStraightClear(float x0, float y0, float x1, float y1, float halfWidth, int layer, int ignore) {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        float length = (float) Math.sqrt(dx * dx + dy * dy);
+        if (length == 0 || halfWidth <= 0) {
+            return traceLine(x0, y0, x1, y1, Float.POSITIVE_INFINITY, layer, ignore) == Sight.CLEAR;
+        }
+
+        float nx = -dy / length * halfWidth;
+        float ny = dx / length * halfWidth;
+        int lines = MathUtils.ceil(2 * halfWidth) + 1;
+        for (int i = 0; i < lines; i ++) {
+            float t = -1 + 2f * i / (lines - 1);
+            if (traceLine(x0 + nx * t, y0 + ny * t, x1 + nx * t, y1 + ny * t, Float.POSITIVE_INFINITY, layer, ignore)
+                    != Sight.CLEAR) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Walks the cells the segment from (x0, y0) to (x1, y1) touches on the given trace layer,
+     * as described for lineOfSight. Dynamic obstacles of class ignore are passed through.
+     */
+    private Sight traceLine(float x0, float y0, float x1, float y1, float range, int layer, int ignore) {
+        int x = MathUtils.floor(x0);
+        int y = MathUtils.floor(y0);
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        int stepX = dx > 0 ? 1 : -1;
+        int stepY = dy > 0 ? 1 : -1;
+
+        // Distance along the segment, as a fraction of its length, to cross one cell and to
+        // reach the next cell border, on each axis
+        float deltaX = dx != 0 ? Math.abs(1 / dx) : Float.POSITIVE_INFINITY;
+        float deltaY = dy != 0 ? Math.abs(1 / dy) : Float.POSITIVE_INFINITY;
+        float nextX = dx == 0 ? Float.POSITIVE_INFINITY : (dx > 0 ? x + 1 - x0 : x0 - x) * deltaX;
+        float nextY = dy == 0 ? Float.POSITIVE_INFINITY : (dy > 0 ? y + 1 - y0 : y0 - y) * deltaY;
+
+        float range2 = range * range;
+        boolean uncertain = false;
+        int steps = Math.abs(MathUtils.floor(x1) - x) + Math.abs(MathUtils.floor(y1) - y);
+        while (steps > 0) {
+            if (nextX < nextY) {
+                x += stepX;
+                nextX += deltaX;
+                steps --;
+            } else if (nextY < nextX) {
+                y += stepY;
+                nextY += deltaY;
+                steps --;
+            } else {
+                byte side = (byte) (opacityAt(x + stepX, y, x0, y0, range2, layer, ignore)
+                        | opacityAt(x, y + stepY, x0, y0, range2, layer, ignore));
+                if ((side & OPAQUE) != 0) {
+                    return Sight.BLOCKED;
+                }
+                uncertain |= side != TRANSPARENT;
+                x += stepX;
+                y += stepY;
+                nextX += deltaX;
+                nextY += deltaY;
+                steps -= 2;
+            }
+
+            byte o = opacityAt(x, y, x0, y0, range2, layer, ignore);
+            if (o == OPAQUE) {
+                return Sight.BLOCKED;
+            }
+            uncertain |= o == PARTIAL;
+        }
+        return uncertain ? Sight.UNCERTAIN : Sight.CLEAR;
+    }
+
+    /**
+     * Builds the visibility table between every pair of cells, by casting two rays offset by
+     * offset to either side of the line between their centers. Lattices larger than
+     * MAX_VISIBILITY_CELLS go without one. Called once the static map is populated.
+     */
+    public void buildVisibility(float offset) {
+        int n = numW * numH;
+        if (n > MAX_VISIBILITY_CELLS) {
+            visible = null;
+            sightUnknown = null;
+            return;
+        }
+        visible = new long[(n * n + 63) / 64];
+        sightUnknown = new long[visible.length];
+        visibilityOffset = offset;
+
+        for (int a = 0; a < n; a ++) {
+            float ax = a % numW + 0.5f;
+            float ay = a / numW + 0.5f;
+            for (int b = 0; b < n; b ++) {
+                int bit = a * n + b;
+                if (a == b) {
+                    visible[bit >>> 6] |= 1L << bit;
+                    continue;
+                }
+                float bx = b % numW + 0.5f;
+                float by = b / numW + 0.5f;
+                float length = (float) Math.sqrt((bx - ax) * (bx - ax) + (by - ay) * (by - ay));
+                float nx = -(by - ay) / length * offset;
+                float ny = (bx - ax) / length * offset;
+
+                Sight left = lineOfSight(ax + nx, ay + ny, bx + nx, by + ny, Float.POSITIVE_INFINITY);
+                Sight right = left == Sight.BLOCKED ? Sight.BLOCKED
+                        : lineOfSight(ax - nx, ay - ny, bx - nx, by - ny, Float.POSITIVE_INFINITY);
+                if (left == Sight.CLEAR && right == Sight.CLEAR) {
+                    visible[bit >>> 6] |= 1L << bit;
+                } else if (right != Sight.BLOCKED) {
+                    sightUnknown[bit >>> 6] |= 1L << bit;
+                }
             }
         }
     }
 
-    public void clearDynamic() {
-        dynamicMap = new boolean [NUM_CLASSES][numW][numH];
+    /**
+     * Looks up the static sight from the cell of (x0, y0) to the cell of (x1, y1) in the
+     * visibility table. The answer is for the cell centers. UNCERTAIN is returned when the
+     * table cannot tell: there is no table, it was built for another offset, a point is off
+     * the lattice, or the rays cross partly covered cells.
+     */
+    public Sight lookupSight(float x0, float y0, float x1, float y1, float offset) {
+        if (visible == null || offset != visibilityOffset
+                || !bounded(x0, 0, numW) || !bounded(y0, 0, numH)
+                || !bounded(x1, 0, numW) || !bounded(y1, 0, numH)) {
+            return Sight.UNCERTAIN;
+        }
+        int bit = cell((int) x0, (int) y0) * numW * numH + cell((int) x1, (int) y1);
+        if ((visible[bit >>> 6] & (1L << bit)) != 0) {
+            return Sight.CLEAR;
+        }
+        if ((sightUnknown[bit >>> 6] & (1L << bit)) != 0) {
+            return Sight.UNCERTAIN;
+        }
+        return Sight.BLOCKED;
     }
 
-    public void populateDynamic(Iterable<Obstacle> objects) {
+    /**
+     * Opacity of cell (x, y) as seen from (x0, y0), which is TRANSPARENT out of range.
+     * Off the sight layer, blocked cells are opaque and every other cell is transparent, except
+     * that weighted cells are opaque when tracing around occupied cells too, so that smoothing
+     * never cuts across them.
+     */
+    private byte opacityAt(int x, int y, float x0, float y0, float range2, int layer, int ignore) {
+        float ox = x + 0.5f - x0;
+        float oy = y + 0.5f - y0;
+        if (ox * ox + oy * oy >= range2) {
+            return TRANSPARENT;
+        }
+        if (!bounded(x, 0, numW) || !bounded(y, 0, numH)) {
+            return OPAQUE;
+        }
+        int c = cell(x, y);
+        if (layer == TRACE_SIGHT) {
+            return opacity[c];
+        }
+        if (staticMap[c] || (layer == TRACE_OCCUPIED && (isDynamicBlocked(c, ignore) || cellCost(c, ignore) > 0))) {
+            return OPAQUE;
+        }
+        return TRANSPARENT;
+    }
+
+    /** Total number of cells expanded by searches on this lattice */
+    public long getExpansions() {
+        return expansions;
+    }
+
+    /** Marks the start of a new tick, for flow field eviction */
+    public void nextTick() {
+        tick ++;
+    }
+
+    /**
+     * Brings the dynamic map up to date with the current positions of objects.
+     * <p>
+     * Each obstacle remembers the cells it was stamped on, and only obstacles whose cells
+     * changed since the last call are restamped.
+     */
+    public void updateDynamic(Iterable<Obstacle> objects) {
         for (Obstacle o : objects) {
             // TODO: this assumes all dynamic things have height and width of 1
             // (Which probably isn't true for projectiles, if it matters)
@@ -81,24 +774,152 @@ public class AILattice {
             int rx = (int) (x + offsetX);
             int lx = (int) (x - offsetX);
 
-            boolean topy = bounded(ty, 0, numH);
-            boolean boty = bounded(by, 0, numH);
-            boolean rightx  = bounded(rx, 0, numW);
-            boolean leftx = bounded( lx, 0, numW);
+            int[] cells = o.getAiCells();
+            int c0 = boundedCell(lx, by);
+            int c1 = boundedCell(rx, by);
+            int c2 = boundedCell(lx, ty);
+            int c3 = boundedCell(rx, ty);
+            if (cells[0] == c0 && cells[1] == c1 && cells[2] == c2 && cells[3] == c3) {
+                continue;
+            }
+
+            for (int c : cells) {
+                stamp(c, o.getAiClass(), -1);
+            }
+            cells[0] = c0;
+            cells[1] = c1;
+            cells[2] = c2;
+            cells[3] = c3;
+            for (int c : cells) {
+                stamp(c, o.getAiClass(), 1);
+            }
+        }
+    }
+
+    /** Index of the cell (x, y), or -1 if it is off the lattice */
+    private int boundedCell(int x, int y) {
+        return bounded(x, 0, numW) && bounded(y, 0, numH) ? cell(x, y) : -1;
+    }
+
+    /** Adds delta obstacles of class aiClass to cell c, updating its class bit when the count hits or leaves 0 */
+    private void stamp(int c, int aiClass, int delta) {
+        if (c < 0) {
+            return;
+        }
+        int i = c * NUM_CLASSES + aiClass;
+        occupants[i] += delta;
+        long bit = 1L << (aiClass + (c % CELLS_PER_WORD) * 8);
+        long word = occupancy[c / CELLS_PER_WORD];
+        if (occupants[i] > 0) {
+            occupancy[c / CELLS_PER_WORD] |= bit;
+        } else {
+            occupancy[c / CELLS_PER_WORD] &= ~bit;
+        }
+        if (occupancy[c / CELLS_PER_WORD] != word) {
+            dynamicVersion ++;
+            if ((word & ~occupancy[c / CELLS_PER_WORD]) != 0) {
+                freedVersion ++;
+            }
+        }
 
-            if (leftx && boty) {
-                dynamicMap[o.getAiClass()][lx][by] = true;
+        if (aiClass == densityClass && densityCost != 0) {
+            int x = c % numW;
+            int y = c / numW;
+            for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, numW - 1); nx ++) {
+                for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, numH - 1); ny ++) {
+                    addWeight(density, cell(nx, ny), delta * densityCost);
+                }
             }
-            if (rightx && boty) {
-                dynamicMap[o.getAiClass()][rx][by] = true;
+            // The class bit may not have changed, but the price of every route through here has
+            costVersion ++;
+        }
+    }
+
+    /**
+     * Adds delta to the cost of leaving every cell that the box from (left, bottom) to (right, top)
+     * overlaps. Whoever adds a cost should remove it again with the same box and -delta.
+     */
+    public void addCost(float left, float bottom, float right, float top, int delta) {
+        int minX = Math.max(MathUtils.floor(left + ALIGN_EPSILON), 0);
+        int minY = Math.max(MathUtils.floor(bottom + ALIGN_EPSILON), 0);
+        int maxX = Math.min(MathUtils.ceil(right - ALIGN_EPSILON), numW);
+        int maxY = Math.min(MathUtils.ceil(top - ALIGN_EPSILON), numH);
+        for (int x = minX; x < maxX; x ++) {
+            for (int y = minY; y < maxY; y ++) {
+                addWeight(cost, cell(x, y), delta);
             }
-            if (leftx && topy) {
-                dynamicMap[o.getAiClass()][lx][ty] = true;
+        }
+        costVersion ++;
+    }
+
+    /**
+     * Makes each obstacle of class aiClass add cost to its cells and the cells around them, for
+     * every class but aiClass. Must be called before any obstacle is stamped on the dynamic map.
+     */
+    public void setDensityCost(int aiClass, int cost) {
+        densityClass = aiClass;
+        densityCost = cost;
+    }
+
+    /**
+     * Adds delta blasts centred on cell c to the danger layer, or removes them if delta is negative.
+     * Searches go around the cells of a blast unless there is no reasonable way around.
+     */
+    public void addDanger(int c, int delta) {
+        if (c < 0) {
+            return;
+        }
+        int x = c % numW;
+        int y = c / numW;
+        for (int nx = Math.max(x - DANGER_RADIUS, 0); nx <= Math.min(x + DANGER_RADIUS, numW - 1); nx ++) {
+            for (int ny = Math.max(y - DANGER_RADIUS, 0); ny <= Math.min(y + DANGER_RADIUS, numH - 1); ny ++) {
+                addWeight(danger, cell(nx, ny), delta);
             }
-            if (rightx && topy) {
-                dynamicMap[o.getAiClass()][rx][ty] = true;
+        }
+        costVersion ++;
+        dangerVersion ++;
+    }
+
+    /** Whether any cell of path is in the danger layer */
+    public boolean isDangerous(LatticePath path) {
+        for (int i = 0; i < path.size(); i ++) {
+            int x = path.getX(i);
+            int y = path.getY(i);
+            if (bounded(x, 0, numW) && bounded(y, 0, numH) && danger[cell(x, y)] > 0) {
+                return true;
             }
         }
+        return false;
+    }
+
+    /** Index of the cell under (x, y), or -1 if it is off the lattice */
+    public int getCell(float x, float y) {
+        return boundedCell(MathUtils.floor(x), MathUtils.floor(y));
+    }
+
+    /** Extra cost of leaving the cell (x, y), for agents ignoring class ignore */
+    public int getCost(int x, int y, int ignore) {
+        return bounded(x, 0, numW) && bounded(y, 0, numH) ? cellCost(cell(x, y), ignore) : 0;
+    }
+
+    /** Adds delta to cell c of a weight layer, keeping count of the weighted cells */
+    private void addWeight(short[] layer, int c, int delta) {
+        boolean weighted = cost[c] + density[c] + danger[c] > 0;
+        layer[c] += delta;
+        if (weighted != cost[c] + density[c] + danger[c] > 0) {
+            weightedCells += weighted ? -1 : 1;
+        }
+    }
+
+    /** Extra cost of leaving cell c, for agents ignoring class ignore */
+    private int cellCost(int c, int ignore) {
+        int total = cost[c] + (ignore == densityClass ? 0 : density[c]) + DANGER_COST * danger[c];
+        return Math.max(0, Math.min(total, MAX_CELL_COST));
+    }
+
+    /** Class bits of everything occupying cell c */
+    private int occupiedClasses(int c) {
+        return (int) (occupancy[c / CELLS_PER_WORD] >>> ((c % CELLS_PER_WORD) * 8)) & ALL_CLASSES;
     }
 
     private boolean bounded(int val, int min, int max) {
@@ -109,155 +930,1134 @@ public class AILattice {
         return val >= min && val < max;
     }
 
-    private Node bfs(Iterable<GridPoint2> target, GridPoint2 position, int ignore) {
-        boolean[][] visited = new boolean[numW][numH];
-        tempQueue.clear();
-        tempQueue.add(new Node(position.x, position.y, null));
+    /** Starts a new search generation, clearing the stamps only when the counter wraps */
+    private void nextGeneration() {
+        generation ++;
+        if (generation == 0) {
+            Arrays.fill(visitStamp, 0);
+            Arrays.fill(goalStamp, 0);
+            Arrays.fill(closedStamp, 0);
+            generation = 1;
+        }
+    }
 
-        boolean[][] goal = new boolean[numW][numH];
+    /** Whether cell c is occupied by anything other than class ignore (-1 to ignore nothing) */
+    private boolean isDynamicBlocked(int c, int ignore) {
+        int mask = bounded(ignore, 0, NUM_CLASSES) ? ALL_CLASSES & ~(1 << ignore) : ALL_CLASSES;
+        return (occupiedClasses(c) & mask) != 0;
+    }
 
-        for (GridPoint2 t : target) {
-            if (t.x >= goal.length || t.y >= goal[0].length) {
-                continue;
+    /**
+     * Marks a neighbour of the cell from as reached, unless it is out of bounds, already visited or blocked.
+     *
+     * @return true if the neighbour is a goal
+     */
+    private boolean visit(int x, int y, int from, int ignore) {
+        if (!bounded(x, 0, numW) || !bounded(y, 0, numH)) {
+            return false;
+        }
+
+        int c = cell(x, y);
+        if (visitStamp[c] == generation || staticMap[c]) {
+            return false;
+        }
+        visitStamp[c] = generation;
+
+        // Goals are checked before dynamic occupancy, since the target usually stands in the goal cells
+        if (goalStamp[c] == generation) {
+            parent[c] = from;
+            return true;
+        }
+
+        if (isDynamicBlocked(c, ignore) || isTooNarrow(c)) {
+            return false;
+        }
+
+        parent[c] = from;
+        queue[queueTail] = c;
+        queueTail = (queueTail + 1) % queue.length;
+        return false;
+    }
+
+    /**
+     * Breadth first search from position to the nearest cell of target.
+     *
+     * The start cell itself is never considered blocked.
+     *
+     * @return the index of the goal cell that was reached, or -1 if there is none
+     */
+    private int bfs(Iterable<GridPoint2> target, GridPoint2 position, int ignore) {
+        if (!bounded(position.x, 0, numW) || !bounded(position.y, 0, numH)) {
+            return -1;
+        }
+
+        nextGeneration();
+        if (!markGoals(target)) {
+            return -1;
+        }
+
+        return bfs(cell(position.x, position.y), ignore);
+    }
+
+    /** Breadth first search from the cell start to the nearest goal cell marked in the current generation */
+    private int bfs(int start, int ignore) {
+        visitStamp[start] = generation;
+        parent[start] = -1;
+        if (goalStamp[start] == generation) {
+            return start;
+        }
+
+        int queueHead = 0;
+        queueTail = 0;
+        queue[queueTail ++] = start;
+
+        while (queueHead != queueTail) {
+            int c = queue[queueHead];
+            queueHead = (queueHead + 1) % queue.length;
+            expansions ++;
+
+            int x = c % numW;
+            int y = c / numW;
+
+            // No diagonals for now
+            if (visit(x + 1, y, c, ignore)) {
+                return cell(x + 1, y);
+            }
+            if (visit(x - 1, y, c, ignore)) {
+                return cell(x - 1, y);
+            }
+            if (visit(x, y + 1, c, ignore)) {
+                return cell(x, y + 1);
+            }
+            if (visit(x, y - 1, c, ignore)) {
+                return cell(x, y - 1);
             }
-            goal[t.x][t.y] = true;
         }
 
-        while (!tempQueue.isEmpty()) {
-            Node n = tempQueue.poll();
+        return -1;
+    }
 
-            if (!bounded(n.x, 0, numW) || !bounded(n.y, 0, numH)) {
-                continue;
+    /**
+     * Same as bfs, but each step costs one more than the cost of the cell it leaves. Open cells
+     * wait in a bucket queue (Dial's algorithm): step costs are small integers, so every open cell
+     * is within NUM_BUCKETS of the cheapest, and a circular array of buckets replaces the heap.
+     *
+     * @return the index of the cheapest goal cell to reach, or -1 if there is none
+     */
+    private int dial(Iterable<GridPoint2> target, GridPoint2 position, int ignore) {
+        if (!bounded(position.x, 0, numW) || !bounded(position.y, 0, numH)) {
+            return -1;
+        }
+
+        nextGeneration();
+        if (!markGoals(target)) {
+            return -1;
+        }
+
+        int start = cell(position.x, position.y);
+        visitStamp[start] = generation;
+        parent[start] = -1;
+        gScore[start] = 0;
+        Arrays.fill(bucketHead, -1);
+        bucketPush(start);
+        int open = 1;
+
+        for (int g = 0; open > 0; g ++) {
+            int bucket = g % NUM_BUCKETS;
+            while (bucketHead[bucket] >= 0) {
+                int c = bucketHead[bucket];
+                bucketRemove(c);
+                open --;
+                expansions ++;
+                if (goalStamp[c] == generation) {
+                    return c;
+                }
+                closedStamp[c] = generation;
+
+                int x = c % numW;
+                int y = c / numW;
+                int step = 1 + cellCost(c, ignore);
+                for (int d = 0; d < 4; d ++) {
+                    int n = boundedCell(x + DX[d], y + DY[d]);
+                    if (n < 0 || closedStamp[n] == generation || staticMap[n]) {
+                        continue;
+                    }
+                    // Goal cells ignore dynamic occupancy, as in bfs
+                    if (goalStamp[n] != generation && (isDynamicBlocked(n, ignore) || isTooNarrow(n))) {
+                        continue;
+                    }
+
+                    if (visitStamp[n] != generation) {
+                        visitStamp[n] = generation;
+                        open ++;
+                    } else if (g + step < gScore[n]) {
+                        bucketRemove(n);
+                    } else {
+                        continue;
+                    }
+                    gScore[n] = g + step;
+                    parent[n] = c;
+                    bucketPush(n);
+                }
             }
+        }
 
-            if ((staticMap[n.x][n.y]) &&
-                    (position.x != n.x || position.y != n.y)) {
+        return -1;
+    }
+
+    /** Adds cell c to the bucket of its gScore */
+    private void bucketPush(int c) {
+        int bucket = gScore[c] % NUM_BUCKETS;
+        bucketPrev[c] = -1;
+        bucketNext[c] = bucketHead[bucket];
+        if (bucketHead[bucket] >= 0) {
+            bucketPrev[bucketHead[bucket]] = c;
+        }
+        bucketHead[bucket] = c;
+    }
+
+    /** Takes cell c out of the bucket of its gScore */
+    private void bucketRemove(int c) {
+        if (bucketPrev[c] >= 0) {
+            bucketNext[bucketPrev[c]] = bucketNext[c];
+        } else {
+            bucketHead[gScore[c] % NUM_BUCKETS] = bucketNext[c];
+        }
+        if (bucketNext[c] >= 0) {
+            bucketPrev[bucketNext[c]] = bucketPrev[c];
+        }
+    }
+
+    /** Stamps the goal cells of target and remembers them for the heuristic, each cell once */
+    private boolean markGoals(Iterable<GridPoint2> target) {
+        numGoals = 0;
+        for (GridPoint2 t : target) {
+            if (!bounded(t.x, 0, numW) || !bounded(t.y, 0, numH) || goalStamp[cell(t.x, t.y)] == generation) {
                 continue;
             }
+            goalStamp[cell(t.x, t.y)] = generation;
+            if (numGoals == goalX.length) {
+                goalX = Arrays.copyOf(goalX, numGoals * 2);
+                goalY = Arrays.copyOf(goalY, numGoals * 2);
+            }
+            goalX[numGoals] = t.x;
+            goalY[numGoals] = t.y;
+            numGoals ++;
+        }
+        return numGoals > 0;
+    }
+
+    /** Estimated cost from (x, y) to the closest goal */
+    private int estimate(int x, int y, Heuristic heuristic) {
+        if (heuristic == Heuristic.NONE) {
+            return 0;
+        }
+        int best = Integer.MAX_VALUE;
+        for (int i = 0; i < numGoals; i ++) {
+            int dx = Math.abs(goalX[i] - x);
+            int dy = Math.abs(goalY[i] - y);
+            int h;
+            if (heuristic == Heuristic.OCTILE) {
+                h = STRAIGHT_COST * (dx + dy) + (DIAGONAL_COST - 2 * STRAIGHT_COST) * Math.min(dx, dy);
+            } else {
+                h = STRAIGHT_COST * (dx + dy);
+            }
+            best = Math.min(best, h);
+        }
+        return best;
+    }
+
+    /**
+     * A diagonal step may not squeeze between two static cells or clip the corner of one, nor pass
+     * a cell that is too narrow for the agent of the current search
+     */
+    private boolean cutsCorner(int x, int y, int dx, int dy) {
+        int a = cell(x + dx, y);
+        int b = cell(x, y + dy);
+        return staticMap[a] || staticMap[b] || isTooNarrow(a) || isTooNarrow(b);
+    }
 
-            if (goal[n.x][n.y]) {
-                return n;
+    /**
+     * A* search from position to the nearest cell of target, over 4 or 8 neighbours.
+     *
+     * Blocking rules match bfs: the start cell is never blocked, and goal cells ignore dynamic occupancy.
+     *
+     * @return the index of the goal cell that was reached, or -1 if there is none
+     */
+    private int astar(Iterable<GridPoint2> target, GridPoint2 position, int ignore,
+                      Heuristic heuristic, boolean diagonal) {
+        if (!bounded(position.x, 0, numW) || !bounded(position.y, 0, numH)) {
+            return -1;
+        }
+
+        nextGeneration();
+        if (!markGoals(target)) {
+            return -1;
+        }
+
+        int start = cell(position.x, position.y);
+        visitStamp[start] = generation;
+        parent[start] = -1;
+        gScore[start] = 0;
+        fScore[start] = estimate(position.x, position.y, heuristic);
+        heapSize = 0;
+        heapPush(start);
+
+        int directions = diagonal ? 8 : 4;
+        while (heapSize > 0) {
+            int c = heapPop();
+            expansions ++;
+            if (goalStamp[c] == generation) {
+                return c;
             }
+            closedStamp[c] = generation;
+
+            int x = c % numW;
+            int y = c / numW;
+            for (int d = 0; d < directions; d ++) {
+                int nx = x + DX[d];
+                int ny = y + DY[d];
+                if (!bounded(nx, 0, numW) || !bounded(ny, 0, numH)) {
+                    continue;
+                }
 
-            boolean flag = false;
-            for (int i = 0; i < NUM_CLASSES; i ++) {
-                if (i == ignore) {
+                int n = cell(nx, ny);
+                if (closedStamp[n] == generation || staticMap[n]) {
+                    continue;
+                }
+                if (d >= 4 && cutsCorner(x, y, DX[d], DY[d])) {
+                    continue;
+                }
+                if (goalStamp[n] != generation && (isDynamicBlocked(n, ignore) || isTooNarrow(n))) {
                     continue;
                 }
 
-                if ((dynamicMap[i][n.x][n.y]) &&
-                        (position.x != n.x || position.y != n.y)) {
-                    flag = true;
+                int g = gScore[c] + (d >= 4 ? DIAGONAL_COST : STRAIGHT_COST) + STRAIGHT_COST * cellCost(c, ignore);
+                if (visitStamp[n] != generation) {
+                    visitStamp[n] = generation;
+                    gScore[n] = g;
+                    fScore[n] = g + estimate(nx, ny, heuristic);
+                    parent[n] = c;
+                    heapPush(n);
+                } else if (g < gScore[n]) {
+                    fScore[n] -= gScore[n] - g;
+                    gScore[n] = g;
+                    parent[n] = c;
+                    heapSiftUp(heapIndex[n]);
                 }
             }
+        }
 
-            if (flag) {
-                continue;
+        return -1;
+    }
+
+    /** Heap order: lower f first, and on ties the cell furthest along its path */
+    private boolean heapLess(int a, int b) {
+        return fScore[a] < fScore[b] || (fScore[a] == fScore[b] && gScore[a] > gScore[b]);
+    }
+
+    private void heapPush(int c) {
+        heap[heapSize] = c;
+        heapIndex[c] = heapSize;
+        heapSize ++;
+        heapSiftUp(heapSize - 1);
+    }
+
+    private int heapPop() {
+        int top = heap[0];
+        heapSize --;
+        if (heapSize > 0) {
+            heap[0] = heap[heapSize];
+            heapIndex[heap[0]] = 0;
+            heapSiftDown(0);
+        }
+        return top;
+    }
+
+    private void heapSiftUp(int i) {
+        int c = heap[i];
+        while (i > 0) {
+            int p = (i - 1) / 2;
+            if (!heapLess(c, heap[p])) {
+                break;
+            }
+            heap[i] = heap[p];
+            heapIndex[heap[i]] = i;
+            i = p;
+        }
+        heap[i] = c;
+        heapIndex[c] = i;
+    }
+
+    private void heapSiftDown(int i) {
+        int c = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && heapLess(heap[child + 1], heap[child])) {
+                child ++;
+            }
+            if (!heapLess(heap[child], c)) {
+                break;
+            }
+            heap[i] = heap[child];
+            heapIndex[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = c;
+        heapIndex[c] = i;
+    }
+
+    /**
+     * Whether target can be walked to from source through the static map.
+     * <p>
+     * Dynamic obstacles are ignored, since they move out of the way eventually.
+     */
+    public boolean isReachable(Vector2 source, Vector2 target) {
+        int sx = (int) source.x;
+        int sy = (int) source.y;
+        int tx = (int) target.x;
+        int ty = (int) target.y;
+        if (!bounded(source.x, 0, numW) || !bounded(source.y, 0, numH)
+                || !bounded(target.x, 0, numW) || !bounded(target.y, 0, numH)) {
+            return false;
+        }
+        int label = component[cell(sx, sy)];
+        return label >= 0 && label == component[cell(tx, ty)];
+    }
+
+    /**
+     * Fills in the clearance of every cell with a two pass distance transform. The edge of the
+     * lattice counts as a ring of static cells just outside it.
+     */
+    private void buildClearance() {
+        for (int y = 0; y < numH; y ++) {
+            for (int x = 0; x < numW; x ++) {
+                int c = cell(x, y);
+                int d = 0;
+                if (!staticMap[c]) {
+                    d = Math.min(Math.min(x + 1, numW - x), Math.min(y + 1, numH - y));
+                    // Neighbours already visited in this pass: left, and the three below
+                    for (int d8 = 0; d8 < 8; d8 ++) {
+                        int nx = x + DX[d8];
+                        int ny = y + DY[d8];
+                        if ((ny < y || (ny == y && nx < x)) && bounded(nx, 0, numW) && bounded(ny, 0, numH)) {
+                            d = Math.min(d, clearance[cell(nx, ny)] + 1);
+                        }
+                    }
+                }
+                clearance[c] = (byte) Math.min(d, Byte.MAX_VALUE);
+            }
+        }
+        for (int y = numH - 1; y >= 0; y --) {
+            for (int x = numW - 1; x >= 0; x --) {
+                int c = cell(x, y);
+                int d = clearance[c];
+                for (int d8 = 0; d8 < 8; d8 ++) {
+                    int nx = x + DX[d8];
+                    int ny = y + DY[d8];
+                    if ((ny > y || (ny == y && nx > x)) && bounded(nx, 0, numW) && bounded(ny, 0, numH)) {
+                        d = Math.min(d, clearance[cell(nx, ny)] + 1);
+                    }
+                }
+                clearance[c] = (byte) d;
             }
+        }
+    }
+
+    /** Clearance that an agent of the given half width needs in every cell it walks through */
+    private static int clearanceFor(float halfWidth) {
+        return Math.max(1, MathUtils.ceil(halfWidth + 0.5f - ALIGN_EPSILON));
+    }
+
+    /** Whether cell c is too close to a static cell for the agent of the current search */
+    private boolean isTooNarrow(int c) {
+        return clearanceNeeded > 1 && clearance[c] < clearanceNeeded;
+    }
+
+    /** Clearance of the cell (x, y), or 0 if it is off the lattice */
+    public int getClearance(int x, int y) {
+        return bounded(x, 0, numW) && bounded(y, 0, numH) ? clearance[cell(x, y)] : 0;
+    }
 
-            if (visited[n.x][n.y]) {
+    /** Labels every connected region of open cells in the static map, using flood fills */
+    private void labelComponents() {
+        Arrays.fill(component, -1);
+        int label = 0;
+        for (int start = 0; start < component.length; start ++) {
+            if (staticMap[start] || component[start] >= 0) {
                 continue;
             }
 
-            visited[n.x][n.y] = true;
+            int queueHead = 0;
+            queueTail = 0;
+            queue[queueTail ++] = start;
+            component[start] = label;
+            while (queueHead != queueTail) {
+                int c = queue[queueHead ++];
+                int x = c % numW;
+                int y = c / numW;
+                for (int d = 0; d < 4; d ++) {
+                    int n = boundedCell(x + DX[d], y + DY[d]);
+                    if (n >= 0 && !staticMap[n] && component[n] < 0) {
+                        component[n] = label;
+                        queue[queueTail ++] = n;
+                    }
+                }
+            }
+            label ++;
+        }
+    }
+
+    /**
+     * Finds the shortest path from position to any cell in target, avoiding static obstacles and
+     * every dynamic class except ignore.
+     *
+     * The path is written into prev, which is cleared first. It excludes the start cell and ends
+     * at the goal cell; it is left empty if no goal is reachable.
+     * <p>
+     * Recent results are cached. A cached path is reused while the static map is unchanged and its
+     * cells stay free, even if an obstacle that it went around has since moved away.
+     */
+    public void findPath(LatticePath prev, Iterable<GridPoint2> target, GridPoint2 position, int ignore) {
+        findPath(prev, target, position, ignore, Heuristic.NONE, false);
+    }
 
-            // No diagonals for now
-            tempQueue.add(new Node(n.x + 1, n.y, n));
-            tempQueue.add(new Node(n.x - 1, n.y, n));
-            tempQueue.add(new Node(n.x, n.y + 1, n));
-            tempQueue.add(new Node(n.x, n.y - 1, n));
+    /**
+     * Same as findPath(prev, target, position, ignore), but searches with A* using the given heuristic,
+     * optionally allowing diagonal steps that do not cut the corner of a static cell.
+     */
+    public void findPath(LatticePath prev, Iterable<GridPoint2> target, GridPoint2 position, int ignore,
+                         Heuristic heuristic, boolean diagonal) {
+        findPath(prev, target, position, ignore, heuristic, diagonal, DEFAULT_HALF_WIDTH);
+    }
+
+    /**
+     * Same as findPath(prev, target, position, ignore, heuristic, diagonal), for an agent of the
+     * given half width. Cells that are too close to a static cell for the agent to stand at their
+     * center are avoided, other than the goal cells.
+     */
+    public void findPath(LatticePath prev, Iterable<GridPoint2> target, GridPoint2 position, int ignore,
+                         Heuristic heuristic, boolean diagonal, float halfWidth) {
+        prev.clear();
+        clearanceNeeded = clearanceFor(halfWidth);
+        CachedPath cached = lookupPath(target, position, ignore, heuristic, diagonal);
+        if (cached != null) {
+            prev.set(cached.path);
+        } else {
+            searchPath(prev, target, position, ignore, heuristic, diagonal);
+            cachePath(prev, target, position, ignore, heuristic, diagonal);
+        }
+        smoothPath(prev, position, ignore, halfWidth);
+    }
+
+    /**
+     * Pulls path taut: each waypoint that an agent can skip, by walking straight from the waypoint
+     * kept before it to the one after, is dropped. Straight lines run between cell centers, leave
+     * halfWidth of room to either side, and avoid static cells and every dynamic class except
+     * ignore. Waypoints are then rarely adjacent.
+     */
+    private void smoothPath(LatticePath path, GridPoint2 position, int ignore, float halfWidth) {
+        int n = path.size();
+        if (n < 2) {
+            return;
+        }
+        // An occupied goal may be stepped into, as in the searches, but not cut to from afar
+        int last = n - 1;
+        boolean goalOccupied = isDynamicBlocked(cell(path.getX(last), path.getY(last)), ignore);
+
+        float fromX = position.x + 0.5f;
+        float fromY = position.y + 0.5f;
+        int kept = 0;
+        for (int i = 0; i < n; ) {
+            int j = i;
+            while (j + 1 < n && !(j + 1 == last && goalOccupied)
+                    && isStraightClear(fromX, fromY, path.getX(j + 1) + 0.5f, path.getY(j + 1) + 0.5f,
+                                       halfWidth, TRACE_OCCUPIED, ignore)) {
+                j ++;
+            }
+            int x = path.getX(j);
+            int y = path.getY(j);
+            path.set(kept ++, x, y);
+            fromX = x + 0.5f;
+            fromY = y + 0.5f;
+            i = j + 1;
+        }
+        path.truncate(kept);
+    }
+
+    /** Searches for the path that findPath returns, without consulting the cache */
+    private void searchPath(LatticePath prev, Iterable<GridPoint2> target, GridPoint2 position, int ignore,
+                            Heuristic heuristic, boolean diagonal) {
+        // The table and the cluster graph are built for agents that fit through any open cell
+        boolean fitsAnywhere = clearanceNeeded <= 1;
+        if (nextHop != null && !diagonal && fitsAnywhere && walkNextHops(prev, target, position, ignore)) {
+            return;
+        }
+        if (clusters != null && !diagonal && fitsAnywhere && walkClusters(prev, target, position, ignore)) {
+            return;
+        }
+
+        int goal;
+        if (heuristic == Heuristic.NONE && !diagonal) {
+            goal = weightedCells > 0 ? dial(target, position, ignore) : bfs(target, position, ignore);
+        } else {
+            goal = astar(target, position, ignore, heuristic, diagonal);
+        }
+
+        if (goal < 0) {
+            return;
+        }
+
+        int length = 0;
+        for (int c = goal; parent[c] >= 0; c = parent[c]) {
+            length ++;
+        }
+
+        prev.reset(length);
+        for (int c = goal, i = length - 1; parent[c] >= 0; c = parent[c], i --) {
+            prev.set(i, c % numW, c / numW);
+        }
+    }
+
+    /**
+     * Finds a cached result for the given findPath arguments that still holds, or returns null.
+     * Leaves the goals of target marked in the current generation.
+     */
+    private CachedPath lookupPath(Iterable<GridPoint2> target, GridPoint2 position, int ignore,
+                                  Heuristic heuristic, boolean diagonal) {
+        nextGeneration();
+        if (!bounded(position.x, 0, numW) || !bounded(position.y, 0, numH) || !markGoals(target)) {
+            return null;
         }
+        int start = cell(position.x, position.y);
+        int hash = goalHash();
+        cacheClock ++;
 
+        for (int i = 0; i < numCachedPaths; i ++) {
+            CachedPath entry = cachedPaths[i];
+            if (entry.goalHash != hash || entry.start != start || entry.ignore != ignore
+                    || entry.clearance != clearanceNeeded || entry.heuristic != heuristic || entry.diagonal != diagonal
+                    || entry.staticVersion != staticVersion || entry.costVersion != costVersion
+                    || !hasSameGoals(entry.goals, entry.numGoals)) {
+                continue;
+            }
+            if (entry.dynamicVersion != dynamicVersion) {
+                if (entry.freedVersion != freedVersion || isPathBlocked(entry.path, ignore)) {
+                    return null;
+                }
+                entry.dynamicVersion = dynamicVersion;
+            }
+            entry.usedClock = cacheClock;
+            cacheHits ++;
+            return entry;
+        }
         return null;
     }
 
-    private boolean dfs(int targetX, int targetY, int sourceX, int sourceY,
-                        boolean[][] visited, int depth, int maxDepth) {
-        // System.out.printf("%d, %d, %d, %d, %d, %d", targetX, targetY, sourceX, sourceY, depth, maxDepth);
-        if (depth >= maxDepth) {
-            // System.out.println("lol");
+    /** Remembers the result of a search, replacing the least recently used result if the cache is full */
+    private void cachePath(LatticePath path, Iterable<GridPoint2> target, GridPoint2 position, int ignore,
+                           Heuristic heuristic, boolean diagonal) {
+        // The search marked goals in later generations, so mark them again
+        nextGeneration();
+        if (!bounded(position.x, 0, numW) || !bounded(position.y, 0, numH) || !markGoals(target)) {
+            return;
+        }
+
+        CachedPath entry = null;
+        for (int i = 0; i < numCachedPaths && entry == null; i ++) {
+            CachedPath e = cachedPaths[i];
+            if (e.start == cell(position.x, position.y) && e.ignore == ignore
+                    && e.clearance == clearanceNeeded && e.heuristic == heuristic
+                    && e.diagonal == diagonal && hasSameGoals(e.goals, e.numGoals)) {
+                entry = e;
+            }
+        }
+        if (entry == null) {
+            if (numCachedPaths < MAX_CACHED_PATHS) {
+                entry = new CachedPath();
+                cachedPaths[numCachedPaths ++] = entry;
+            } else {
+                entry = cachedPaths[0];
+                for (int i = 1; i < numCachedPaths; i ++) {
+                    if (cachedPaths[i].usedClock < entry.usedClock) {
+                        entry = cachedPaths[i];
+                    }
+                }
+            }
+        }
+
+        if (entry.goals.length < numGoals) {
+            entry.goals = new int[numGoals];
+        }
+        for (int i = 0; i < numGoals; i ++) {
+            entry.goals[i] = cell(goalX[i], goalY[i]);
+        }
+        entry.numGoals = numGoals;
+        entry.goalHash = goalHash();
+        entry.start = cell(position.x, position.y);
+        entry.ignore = ignore;
+        entry.clearance = clearanceNeeded;
+        entry.heuristic = heuristic;
+        entry.diagonal = diagonal;
+        entry.staticVersion = staticVersion;
+        entry.dynamicVersion = dynamicVersion;
+        entry.freedVersion = freedVersion;
+        entry.costVersion = costVersion;
+        entry.usedClock = cacheClock;
+        entry.path.set(path);
+    }
+
+    /** Hash of the goal cells from the last markGoals, independent of their order */
+    private int goalHash() {
+        int hash = numGoals;
+        for (int i = 0; i < numGoals; i ++) {
+            int c = cell(goalX[i], goalY[i]);
+            hash += c * 0x9E3779B1 ^ (c >>> 16);
+        }
+        return hash;
+    }
+
+    /** Whether any cell of path before its last is occupied by a class other than ignore */
+    private boolean isPathBlocked(LatticePath path, int ignore) {
+        for (int i = 0; i < path.size() - 1; i ++) {
+            if (isDynamicBlocked(cell(path.getX(i), path.getY(i)), ignore)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes into prev a path from position to the nearest cell of target read off the next hop
+     * table, with breadth first detours around the cells on it that dynamic obstacles block.
+     * The path is shortest over the static map, and may be a little longer than findPath's
+     * around dynamic obstacles.
+     *
+     * @return false if the table cannot answer, and the path must be searched for instead
+     */
+    private boolean walkNextHops(LatticePath prev, Iterable<GridPoint2> target, GridPoint2 position, int ignore) {
+        if (!bounded(position.x, 0, numW) || !bounded(position.y, 0, numH)) {
+            return false;
+        }
+        // The table has no routes out of static cells
+        int start = cell(position.x, position.y);
+        if (staticMap[start]) {
             return false;
         }
 
-        if (sourceX < 0 || sourceX >= numW || sourceY < 0 || sourceY >= numH) {
+        nextGeneration();
+        if (!markGoals(target) || goalStamp[start] == generation) {
+            return true;
+        }
+
+        int goal = -1;
+        int best = UNREACHED;
+        for (int i = 0; i < numGoals; i ++) {
+            int g = cell(goalX[i], goalY[i]);
+            int hops = countHops(start, g, best);
+            if (hops >= 0) {
+                goal = g;
+                best = hops;
+            }
+        }
+        if (goal < 0) {
+            return true;
+        }
+
+        routeLength = 0;
+        for (int c = start; c != goal; ) {
+            c = nextHop(c, goal);
+            route[routeLength ++] = c;
+        }
+
+        // The table only knows distance, so a route through weighted cells may not be the cheapest.
+        // Checked before any detour is searched, so that no detour work is thrown away.
+        if (isRouteWeighted(ignore)) {
             return false;
         }
 
-        if (visited[sourceX][sourceY]) {
+        // The goal may be occupied, as in bfs, but no cell before it
+        boolean detoured = false;
+        for (int i = 0; i < routeLength - 1; i ++) {
+            if (isDynamicBlocked(route[i], ignore)) {
+                i = detour(i == 0 ? start : route[i - 1], i, ignore);
+                if (i < 0) {
+                    return false;
+                }
+                detoured = true;
+            }
+        }
+        // Detours step onto cells the table route did not use
+        if (detoured && isRouteWeighted(ignore)) {
             return false;
         }
 
-        if (staticMap[sourceX][sourceY]) {
+        prev.reset(routeLength);
+        for (int i = 0; i < routeLength; i ++) {
+            prev.set(i, route[i] % numW, route[i] / numW);
+        }
+        return true;
+    }
+
+    /** Whether any cell of route before its last has a cost for agents ignoring class ignore */
+    private boolean isRouteWeighted(int ignore) {
+        for (int i = 0; i < routeLength - 1 && weightedCells > 0; i ++) {
+            if (cellCost(route[i], ignore) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes into prev a path from position to the nearest cell of target planned on the cluster
+     * graph, then refined leg by leg with A* searches that respect dynamic obstacles. The path is
+     * close to, but not always, the shortest.
+     *
+     * @return false if the cluster graph cannot answer, and the path must be searched for instead
+     */
+    private boolean walkClusters(LatticePath prev, Iterable<GridPoint2> target, GridPoint2 position, int ignore) {
+        if (!bounded(position.x, 0, numW) || !bounded(position.y, 0, numH)) {
+            return false;
+        }
+        int start = cell(position.x, position.y);
+        if (staticMap[start]) {
             return false;
         }
 
-        if (targetX == sourceX && targetY == sourceY) {
+        nextGeneration();
+        if (!markGoals(target) || goalStamp[start] == generation) {
+            return true;
+        }
+        // Goals this close are found faster by searching the lattice directly
+        for (int i = 0; i < numGoals; i ++) {
+            if (Math.abs(goalX[i] - position.x) + Math.abs(goalY[i] - position.y) < ClusterGraph.CLUSTER_SIZE) {
+                return false;
+            }
+        }
+        if (!clusters.plan(start, goalX, goalY, numGoals, waypoints)) {
             return true;
         }
+        // A leg would end on an occupied entrance instead of going around it
+        for (int i = 0; i < waypoints.size - 1; i ++) {
+            if (isDynamicBlocked(waypoints.get(i), ignore)) {
+                return false;
+            }
+        }
 
-        visited[sourceX][sourceY] = true;
+        int from = start;
+        for (int i = 0; i < waypoints.size; i ++) {
+            int to = waypoints.get(i);
+            if (to == from) {
+                continue;
+            }
+            legStart.set(from % numW, from / numW);
+            legGoal.first().set(to % numW, to / numW);
+            if (astar(legGoal, legStart, ignore, Heuristic.MANHATTAN, false) < 0) {
+                prev.clear();
+                return false;
+            }
 
-        boolean up = dfs(targetX, targetY, sourceX, sourceY+1, visited, depth+1, maxDepth);
-        boolean down = dfs(targetX, targetY, sourceX, sourceY-1, visited, depth+1, maxDepth);;
-        boolean left = dfs(targetX, targetY, sourceX-1, sourceY, visited, depth+1, maxDepth);;
-        boolean right = dfs(targetX, targetY, sourceX+1, sourceY, visited, depth+1, maxDepth);;
+            int length = 0;
+            for (int c = to; parent[c] >= 0; c = parent[c]) {
+                route[length ++] = c;
+            }
+            for (int j = length - 1; j >= 0; j --) {
+                prev.add(route[j] % numW, route[j] / numW);
+            }
+            from = to;
+        }
+        return true;
+    }
 
-        // System.out.println("ha");
+    /** Cell after c on the way to the goal g */
+    private int nextHop(int c, int g) {
+        int d = nextHop[g * numW * numH + c];
+        return cell(c % numW + DX[d], c / numW + DY[d]);
+    }
 
-        return up || down || left || right;
+    /** Number of steps from start to the goal g, or -1 if it is unreachable or limit steps or more away */
+    private int countHops(int start, int g, int limit) {
+        int hops = 0;
+        for (int c = start; c != g; c = nextHop(c, g)) {
+            if (nextHop[g * numW * numH + c] == NO_HOP || ++ hops >= limit) {
+                return -1;
+            }
+        }
+        return hops;
     }
 
-    private boolean dfs(Vector2 source, Vector2 target, int dist) {
-        // System.out.println(source);
-        // System.out.println(target);
-        boolean[][] visited = new boolean[numW][numH];
-        return dfs((int) target.x, (int) target.y, (int) source.x, (int) source.y, visited, 0, dist);
+    /**
+     * Replaces the blocked cell at index blocked of the route, and as many cells after it as needed,
+     * with the shortest way from the cell from to a later open cell of the route.
+     *
+     * @return the index of the last cell of the detour, or -1 if the route cannot be rejoined
+     */
+    private int detour(int from, int blocked, int ignore) {
+        nextGeneration();
+        for (int i = blocked + 1; i < routeLength; i ++) {
+            if (i == routeLength - 1 || !isDynamicBlocked(route[i], ignore)) {
+                goalStamp[route[i]] = generation;
+            }
+        }
+        int rejoin = bfs(from, ignore);
+        if (rejoin < 0) {
+            return -1;
+        }
+
+        int rejoinIndex = blocked + 1;
+        while (route[rejoinIndex] != rejoin) {
+            rejoinIndex ++;
+        }
+        int length = 0;
+        for (int c = rejoin; parent[c] >= 0; c = parent[c]) {
+            length ++;
+        }
+
+        // Shift the rest of the route to sit after the detour, then fill the detour in back to front
+        int rest = routeLength - rejoinIndex - 1;
+        if (blocked + length + rest > route.length) {
+            route = Arrays.copyOf(route, Math.max(blocked + length + rest, route.length * 2));
+        }
+        System.arraycopy(route, rejoinIndex + 1, route, blocked + length, rest);
+        routeLength = blocked + length + rest;
+        for (int c = rejoin, i = blocked + length - 1; parent[c] >= 0; c = parent[c], i --) {
+            route[i] = c;
+        }
+        return blocked + length - 1;
     }
 
-    public boolean isReachable(Vector2 source, Vector2 target) {
-        // Manhattan distance as upper bound
-        int dist = (int) (Math.ceil(target.x - source.x) + Math.ceil(target.y - source.y)) + 30;
-        return dfs(source, target, dist);
+    /**
+     * Writes into prev the path from position toward target, read off a flow field that is shared
+     * with every other agent heading for the same target cells while ignoring the same class.
+     * <p>
+     * The result matches findPath(prev, target, position, ignore) up to ties, but the search behind
+     * it runs at most once per target each time the maps change, instead of once per agent. Only
+     * straight steps are used.
+     */
+    public void followFlow(LatticePath prev, Iterable<GridPoint2> target, GridPoint2 position, int ignore) {
+        followFlow(prev, target, position, ignore, DEFAULT_HALF_WIDTH);
     }
 
-    public void findPath(PooledList<GridPoint2> prev, Iterable<GridPoint2> target, GridPoint2 position, int ignore) {
+    /** Same as followFlow(prev, target, position, ignore), for an agent of the given half width */
+    public void followFlow(LatticePath prev, Iterable<GridPoint2> target, GridPoint2 position, int ignore,
+                           float halfWidth) {
         prev.clear();
+        clearanceNeeded = clearanceFor(halfWidth);
+        if (!bounded(position.x, 0, numW) || !bounded(position.y, 0, numH)) {
+            return;
+        }
 
-        Node n = bfs(target, position, ignore);
+        FlowField field = getFlowField(target, ignore);
+        if (field == null) {
+            return;
+        }
+        int[] dist = field.dist;
 
-        if (n == null) {
+        // Walk downhill. The start cell may be blocked itself, in which case it has no distance,
+        // and we step to whichever neighbour is closest.
+        int c = cell(position.x, position.y);
+        if (goalStamp[c] == generation) {
             return;
         }
+        while (dist[c] != 0) {
+            int x = c % numW;
+            int y = c / numW;
+            int next = -1;
+            int best = dist[c];
+            for (int d = 0; d < 4; d ++) {
+                int nx = x + DX[d];
+                int ny = y + DY[d];
+                if (bounded(nx, 0, numW) && bounded(ny, 0, numH) && dist[cell(nx, ny)] < best) {
+                    next = cell(nx, ny);
+                    best = dist[next];
+                }
+            }
+            if (next < 0) {
+                prev.clear();
+                return;
+            }
+            prev.add(next % numW, next / numW);
+            c = next;
+        }
+    }
+
+    /** Finds, or builds, the flow field toward the cells of target for agents ignoring class ignore */
+    private FlowField getFlowField(Iterable<GridPoint2> target, int ignore) {
+        nextGeneration();
+        if (!markGoals(target)) {
+            return null;
+        }
 
-        while (n.back != null) {
-            prev.add(0, new GridPoint2(n.x, n.y));
-            n = n.back;
+        FlowField field = null;
+        for (int i = 0; i < numFlowFields && field == null; i ++) {
+            if (flowFields[i].ignore == ignore && flowFields[i].clearance == clearanceNeeded
+                    && hasSameGoals(flowFields[i].goals, flowFields[i].numGoals)) {
+                field = flowFields[i];
+            }
         }
 
+        if (field == null) {
+            if (numFlowFields < MAX_FLOW_FIELDS) {
+                field = new FlowField(numW * numH);
+                flowFields[numFlowFields ++] = field;
+            } else {
+                // Evict the field that has gone unused the longest
+                field = flowFields[0];
+                for (int i = 1; i < numFlowFields; i ++) {
+                    if (flowFields[i].usedTick < field.usedTick) {
+                        field = flowFields[i];
+                    }
+                }
+            }
+            buildFlowField(field, ignore);
+        } else if (field.staticVersion != staticVersion || field.dynamicVersion != dynamicVersion
+                || field.costVersion != costVersion || field.dangerVersion != dangerVersion) {
+            buildFlowField(field, ignore);
+        }
+
+        field.usedTick = tick;
+        return field;
+    }
+
+    /** Whether goals are exactly the goal cells marked in the current generation */
+    private boolean hasSameGoals(int[] goals, int count) {
+        if (count != numGoals) {
+            return false;
+        }
+        for (int i = 0; i < count; i ++) {
+            if (goalStamp[goals[i]] != generation) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reverse breadth first search from the goal cells marked in the current generation, or a
+     * reverse bucket queue search over cell costs if any cell is weighted.
+     */
+    private void buildFlowField(FlowField field, int ignore) {
+        int[] dist = field.dist;
+        Arrays.fill(dist, UNREACHED);
+
+        if (field.goals.length < numGoals) {
+            field.goals = new int[numGoals];
+        }
+        field.numGoals = numGoals;
+        field.ignore = ignore;
+        field.clearance = clearanceNeeded;
+        field.staticVersion = staticVersion;
+        field.dynamicVersion = dynamicVersion;
+        field.costVersion = costVersion;
+        field.dangerVersion = dangerVersion;
+
+        int queueHead = 0;
+        queueTail = 0;
+        for (int i = 0; i < numGoals; i ++) {
+            int g = cell(goalX[i], goalY[i]);
+            field.goals[i] = g;
+            // Goal cells are reachable even when occupied, as in bfs, but never when static
+            if (!staticMap[g] && dist[g] == UNREACHED) {
+                dist[g] = 0;
+                queue[queueTail ++] = g;
+            }
+        }
+        if (weightedCells > 0) {
+            buildWeightedFlow(dist, queueTail, ignore);
+            return;
+        }
+
+        while (queueHead != queueTail) {
+            int c = queue[queueHead];
+            queueHead = (queueHead + 1) % queue.length;
+            expansions ++;
+
+            int x = c % numW;
+            int y = c / numW;
+            for (int d = 0; d < 4; d ++) {
+                int nx = x + DX[d];
+                int ny = y + DY[d];
+                if (!bounded(nx, 0, numW) || !bounded(ny, 0, numH)) {
+                    continue;
+                }
+                int n = cell(nx, ny);
+                if (dist[n] != UNREACHED || staticMap[n] || isDynamicBlocked(n, ignore) || isTooNarrow(n)) {
+                    continue;
+                }
+                dist[n] = dist[c] + 1;
+                queue[queueTail] = n;
+                queueTail = (queueTail + 1) % queue.length;
+            }
+        }
+    }
+
+    /**
+     * Fills dist outward from the first sources cells of queue, which are at distance 0, where
+     * stepping from a cell costs one more than its cost. Cells are settled in order of distance
+     * using the bucket queue, with dist standing in for gScore.
+     */
+    private void buildWeightedFlow(int[] dist, int sources, int ignore) {
+        Arrays.fill(bucketHead, -1);
+        for (int i = 0; i < sources; i ++) {
+            gScore[queue[i]] = 0;
+            bucketPush(queue[i]);
+        }
+        int open = sources;
+
+        for (int g = 0; open > 0; g ++) {
+            int bucket = g % NUM_BUCKETS;
+            while (bucketHead[bucket] >= 0) {
+                int c = bucketHead[bucket];
+                bucketRemove(c);
+                open --;
+                expansions ++;
+                closedStamp[c] = generation;
+
+                int x = c % numW;
+                int y = c / numW;
+                for (int d = 0; d < 4; d ++) {
+                    int n = boundedCell(x + DX[d], y + DY[d]);
+                    if (n < 0 || closedStamp[n] == generation || staticMap[n] || isDynamicBlocked(n, ignore)
+                            || isTooNarrow(n)) {
+                        continue;
+                    }
+                    int nd = g + 1 + cellCost(n, ignore);
+                    if (dist[n] == UNREACHED) {
+                        open ++;
+                    } else if (nd < dist[n]) {
+                        bucketRemove(n);
+                    } else {
+                        continue;
+                    }
+                    dist[n] = nd;
+                    gScore[n] = nd;
+                    bucketPush(n);
+                }
+            }
+        }
     }
 
     public void drawDebug(GameCanvas canvas, Vector2 drawScale) {
         for (int x = 0; x < numW; x ++) {
             for (int y = 0; y < numH; y ++) {
-                if (staticMap[x][y]) {
+                if (staticMap[cell(x, y)]) {
                     canvas.drawPoint((x + 0.5f) * drawScale.x, (y + 0.5f) * drawScale.y, Color.RED);
                 }
-                for (int i = 0; i < NUM_CLASSES; i ++) {
-                    if (dynamicMap[i][x][y]) {
-                        canvas.drawPoint((x + 0.5f) * drawScale.x, (y + 0.5f) * drawScale.y, Color.GREEN);
-                    }
+                if (occupiedClasses(cell(x, y)) != 0) {
+                    canvas.drawPoint((x + 0.5f) * drawScale.x, (y + 0.5f) * drawScale.y, Color.GREEN);
                 }
             }
         }
     }
 
-    public static void drawPath(GameCanvas canvas, PooledList<GridPoint2> path, Vector2 drawScale, Color color) {
+    public static void drawPath(GameCanvas canvas, LatticePath path, Vector2 drawScale, Color color) {
         for (int i = 0; i < path.size()-1; i ++) {
-            GridPoint2 p1 = path.get(i);
-            GridPoint2 p2 = path.get(i+1);
-
-            canvas.drawLine((p1.x + 0.5f) * drawScale.x, (p1.y + 0.5f) * drawScale.y,
-                    (p2.x + 0.5f) * drawScale.x, (p2.y + 0.5f) * drawScale.y, color);
+            canvas.drawLine((path.getX(i) + 0.5f) * drawScale.x, (path.getY(i) + 0.5f) * drawScale.y,
+                    (path.getX(i+1) + 0.5f) * drawScale.x, (path.getY(i+1) + 0.5f) * drawScale.y, color);
         }
     }
 }
@@ -16,6 +16,7 @@ import edu.cornell.gdiac.util.SoundController;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 // The whole point of this class is to get all textures in a unified location.
 // This makes it easier for assets to be data driven (defining assets in json files)
@@ -29,8 +30,13 @@ public class Assets {
     public static float VOLUME = 0.1f;
     /** Asset Manager */
     private static AssetManager manager;
-    /** Mapping from file names to in-game film strip assets */
-    private static Map<String, FilmStrip> filmStrips = new HashMap<>();
+    /**
+     * Mapping from file names to in-game film strip assets
+     *
+     * These are cut the first time they are asked for, which may be from several headless
+     * worlds at once, so the map must be safe to share between threads.
+     */
+    private static final Map<String, FilmStrip> filmStrips = new ConcurrentHashMap<>();
     /** Mapping from file names to in-game texture assets */
     private static Map<String, TextureRegion> textureRegions = new HashMap<>();
     /** In-game music assets */
@@ -117,12 +123,10 @@ public class Assets {
      * @return Associated FilmStrip
      */
     public static FilmStrip getFilmStrip(String fileName, int pixels) {
-        if (filmStrips.get(fileName) == null) {
-            TextureRegion rawTexture = textureRegions.get(fileName);
-            int[] dims = getFilmStripDimensions(rawTexture, pixels);
-            filmStrips.put(fileName, createFilmStrip(manager, fileName, dims[0], dims[1], dims[2]));
-        }
-        return new FilmStrip(filmStrips.get(fileName));
+        return new FilmStrip(filmStrips.computeIfAbsent(fileName, name -> {
+            int[] dims = getFilmStripDimensions(textureRegions.get(name), pixels);
+            return createFilmStrip(manager, name, dims[0], dims[1], dims[2]);
+        }));
     }
 
     /**
@@ -134,12 +138,10 @@ public class Assets {
      * @return Associated FilmStrip
      */
     public static FilmStrip getFilmStrip(String fileName, int width, int height) {
-        if (filmStrips.get(fileName) == null) {
-            TextureRegion rawTexture = textureRegions.get(fileName);
-            int[] dims = getFilmStripDimensions(rawTexture, width, height);
-            filmStrips.put(fileName, createFilmStrip(manager, fileName, dims[0], dims[1], dims[2]));
-        }
-        return new FilmStrip(filmStrips.get(fileName));
+        return new FilmStrip(filmStrips.computeIfAbsent(fileName, name -> {
+            int[] dims = getFilmStripDimensions(textureRegions.get(name), width, height);
+            return createFilmStrip(manager, name, dims[0], dims[1], dims[2]);
+        }));
     }
 
     public static Music getMusic(String filename) {
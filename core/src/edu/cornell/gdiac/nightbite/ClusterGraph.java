@@ -0,0 +1,426 @@
+package edu.cornell.gdiac.nightbite;
+
+import com.badlogic.gdx.utils.IntArray;
+
+import java.util.Arrays;
+
+/**
+ * Abstract graph over the static map of a large AILattice, for hierarchical path planning.
+ * <p>
+ * The lattice is cut into square clusters. Wherever open cells face each other across a cluster
+ * border, an entrance puts a node on both sides. Each node is linked to the node across its entrance
+ * by one step, and to the other nodes of its cluster by the length of the shortest path between them
+ * that stays inside the cluster. Plans are searched on this graph instead of the lattice, so their
+ * cost grows with the number of clusters a route crosses rather than with the area of the map.
+ * <p>
+ * The graph only changes when the static map does. Copies share it, but have their own search
+ * space, so that each thread can plan on its own copy.
+ */
+public class ClusterGraph {
+    /** Width and height of a cluster, in cells */
+    public static final int CLUSTER_SIZE = 10;
+    /** Open stretches of border at least this long get an entrance at both ends instead of one in the middle */
+    private static final int LONG_ENTRANCE = 6;
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    private static final int[] DX = {1, -1, 0, 0};
+    private static final int[] DY = {0, 0, 1, -1};
+
+    private final boolean[] staticMap;
+    private final int numW;
+    private final int numH;
+    private final int clustersW;
+
+    private int numNodes;
+    /** Lattice cell of each node */
+    private int[] nodeCell;
+    /** Nodes of cluster k are clusterNodes[clusterStart[k]] up to clusterNodes[clusterStart[k + 1]] */
+    private int[] clusterStart;
+    private int[] clusterNodes;
+    /** Edges of node u are edgeTarget[edgeStart[u]] up to edgeTarget[edgeStart[u + 1]], with matching costs */
+    private int[] edgeStart;
+    private int[] edgeTarget;
+    private int[] edgeCost;
+
+    // Breadth first search inside one cluster
+    private int cellGeneration;
+    private int[] cellStamp;
+    private int[] cellDist;
+    private int[] queue;
+
+    // A* over the nodes
+    private int nodeGeneration;
+    private int[] nodeStamp;
+    private int[] closedStamp;
+    private int[] gScore;
+    private int[] fScore;
+    private int[] nodeParent;
+    /** Shortest distance from each node to a goal in its cluster, valid where goalStamp is current */
+    private int[] goalStamp;
+    private int[] goalCost;
+    private int[] goalCell;
+    private int[] heap;
+    private int heapSize;
+    private int[] heapIndex;
+
+    public ClusterGraph(boolean[] staticMap, int numW, int numH) {
+        this.staticMap = staticMap;
+        this.numW = numW;
+        this.numH = numH;
+        clustersW = (numW + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        int clustersH = (numH + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        allocateCellScratch();
+
+        int[] nodeAt = new int[numW * numH];
+        Arrays.fill(nodeAt, -1);
+        IntArray cells = new IntArray();
+        IntArray from = new IntArray();
+        IntArray to = new IntArray();
+        IntArray cost = new IntArray();
+
+        // Entrances across the vertical borders, then the horizontal ones
+        for (int x = CLUSTER_SIZE; x < numW; x += CLUSTER_SIZE) {
+            for (int y0 = 0; y0 < numH; y0 += CLUSTER_SIZE) {
+                addEntrances(x - 1, y0, 1, 0, 0, 1, Math.min(CLUSTER_SIZE, numH - y0), nodeAt, cells, from, to, cost);
+            }
+        }
+        for (int y = CLUSTER_SIZE; y < numH; y += CLUSTER_SIZE) {
+            for (int x0 = 0; x0 < numW; x0 += CLUSTER_SIZE) {
+                addEntrances(x0, y - 1, 0, 1, 1, 0, Math.min(CLUSTER_SIZE, numW - x0), nodeAt, cells, from, to, cost);
+            }
+        }
+        numNodes = cells.size;
+        nodeCell = cells.toArray();
+
+        // Group the nodes by cluster
+        int numClusters = clustersW * clustersH;
+        clusterStart = new int[numClusters + 1];
+        for (int u = 0; u < numNodes; u ++) {
+            clusterStart[clusterOf(nodeCell[u]) + 1] ++;
+        }
+        for (int k = 0; k < numClusters; k ++) {
+            clusterStart[k + 1] += clusterStart[k];
+        }
+        clusterNodes = new int[numNodes];
+        int[] fill = Arrays.copyOf(clusterStart, numClusters);
+        for (int u = 0; u < numNodes; u ++) {
+            clusterNodes[fill[clusterOf(nodeCell[u])] ++] = u;
+        }
+
+        // Link the nodes of each cluster
+        for (int u = 0; u < numNodes; u ++) {
+            int k = clusterOf(nodeCell[u]);
+            searchCluster(nodeCell[u]);
+            for (int i = clusterStart[k]; i < clusterStart[k + 1]; i ++) {
+                int v = clusterNodes[i];
+                if (v != u && cellStamp[nodeCell[v]] == cellGeneration) {
+                    from.add(u);
+                    to.add(v);
+                    cost.add(cellDist[nodeCell[v]]);
+                }
+            }
+        }
+
+        edgeStart = new int[numNodes + 1];
+        for (int e = 0; e < from.size; e ++) {
+            edgeStart[from.get(e) + 1] ++;
+        }
+        for (int u = 0; u < numNodes; u ++) {
+            edgeStart[u + 1] += edgeStart[u];
+        }
+        edgeTarget = new int[from.size];
+        edgeCost = new int[from.size];
+        fill = Arrays.copyOf(edgeStart, numNodes);
+        for (int e = 0; e < from.size; e ++) {
+            int slot = fill[from.get(e)] ++;
+            edgeTarget[slot] = to.get(e);
+            edgeCost[slot] = cost.get(e);
+        }
+
+        allocateNodeScratch();
+    }
+
+    /** Creates a copy that shares the graph of other but searches in its own space */
+    public ClusterGraph(ClusterGraph other) {
+        staticMap = other.staticMap;
+        numW = other.numW;
+        numH = other.numH;
+        clustersW = other.clustersW;
+        numNodes = other.numNodes;
+        nodeCell = other.nodeCell;
+        clusterStart = other.clusterStart;
+        clusterNodes = other.clusterNodes;
+        edgeStart = other.edgeStart;
+        edgeTarget = other.edgeTarget;
+        edgeCost = other.edgeCost;
+        allocateCellScratch();
+        allocateNodeScratch();
+    }
+
+    private void allocateCellScratch() {
+        cellStamp = new int[numW * numH];
+        cellDist = new int[numW * numH];
+        queue = new int[numW * numH];
+    }
+
+    private void allocateNodeScratch() {
+        nodeStamp = new int[numNodes];
+        closedStamp = new int[numNodes];
+        gScore = new int[numNodes];
+        fScore = new int[numNodes];
+        nodeParent = new int[numNodes];
+        goalStamp = new int[numNodes];
+        goalCost = new int[numNodes];
+        goalCell = new int[numNodes];
+        heap = new int[numNodes];
+        heapIndex = new int[numNodes];
+    }
+
+    public int getNumNodes() {
+        return numNodes;
+    }
+
+    /** Cluster holding the cell c */
+    private int clusterOf(int c) {
+        return (c % numW) / CLUSTER_SIZE + (c / numW) / CLUSTER_SIZE * clustersW;
+    }
+
+    /**
+     * Adds the entrances along one border segment of length cells. The cells on the near side
+     * start at (x, y) and run along (alongX, alongY); the far side is offset by (acrossX, acrossY).
+     */
+    private void addEntrances(int x, int y, int acrossX, int acrossY, int alongX, int alongY, int length,
+                              int[] nodeAt, IntArray cells, IntArray from, IntArray to, IntArray cost) {
+        int runStart = -1;
+        for (int i = 0; i <= length; i ++) {
+            boolean open = i < length
+                    && !staticMap[(x + i * alongX) + (y + i * alongY) * numW]
+                    && !staticMap[(x + i * alongX + acrossX) + (y + i * alongY + acrossY) * numW];
+            if (open && runStart < 0) {
+                runStart = i;
+            } else if (!open && runStart >= 0) {
+                int runEnd = i - 1;
+                if (runEnd - runStart + 1 >= LONG_ENTRANCE) {
+                    addEntrance(x, y, acrossX, acrossY, alongX, alongY, runStart, nodeAt, cells, from, to, cost);
+                    addEntrance(x, y, acrossX, acrossY, alongX, alongY, runEnd, nodeAt, cells, from, to, cost);
+                } else {
+                    addEntrance(x, y, acrossX, acrossY, alongX, alongY, (runStart + runEnd) / 2,
+                            nodeAt, cells, from, to, cost);
+                }
+                runStart = -1;
+            }
+        }
+    }
+
+    private void addEntrance(int x, int y, int acrossX, int acrossY, int alongX, int alongY, int i,
+                             int[] nodeAt, IntArray cells, IntArray from, IntArray to, IntArray cost) {
+        int near = (x + i * alongX) + (y + i * alongY) * numW;
+        int far = near + acrossX + acrossY * numW;
+        int u = addNode(near, nodeAt, cells);
+        int v = addNode(far, nodeAt, cells);
+        from.add(u);
+        to.add(v);
+        cost.add(1);
+        from.add(v);
+        to.add(u);
+        cost.add(1);
+    }
+
+    private int addNode(int c, int[] nodeAt, IntArray cells) {
+        if (nodeAt[c] < 0) {
+            nodeAt[c] = cells.size;
+            cells.add(c);
+        }
+        return nodeAt[c];
+    }
+
+    /** Breadth first search over the open cells of the cluster holding source, which must be open */
+    private void searchCluster(int source) {
+        cellGeneration ++;
+        int minX = (source % numW) / CLUSTER_SIZE * CLUSTER_SIZE;
+        int minY = (source / numW) / CLUSTER_SIZE * CLUSTER_SIZE;
+        int maxX = Math.min(minX + CLUSTER_SIZE, numW);
+        int maxY = Math.min(minY + CLUSTER_SIZE, numH);
+
+        int queueHead = 0;
+        int queueTail = 0;
+        queue[queueTail ++] = source;
+        cellStamp[source] = cellGeneration;
+        cellDist[source] = 0;
+        while (queueHead != queueTail) {
+            int c = queue[queueHead ++];
+            int x = c % numW;
+            int y = c / numW;
+            for (int d = 0; d < 4; d ++) {
+                int nx = x + DX[d];
+                int ny = y + DY[d];
+                if (nx < minX || nx >= maxX || ny < minY || ny >= maxY) {
+                    continue;
+                }
+                int n = nx + ny * numW;
+                if (staticMap[n] || cellStamp[n] == cellGeneration) {
+                    continue;
+                }
+                cellStamp[n] = cellGeneration;
+                cellDist[n] = cellDist[c] + 1;
+                queue[queueTail ++] = n;
+            }
+        }
+    }
+
+    /**
+     * Plans a route over the static map from the open cell start to the nearest goal cell.
+     * <p>
+     * The route is written into waypoints as the entrance cells it passes, followed by the goal.
+     * Consecutive waypoints are either in the same cluster or across one entrance, so the route
+     * can be refined into a full path with short local searches.
+     *
+     * @return false if no goal can be reached
+     */
+    public boolean plan(int start, int[] goalX, int[] goalY, int numGoals, IntArray waypoints) {
+        waypoints.clear();
+        nodeGeneration ++;
+        int startCluster = clusterOf(start);
+
+        // Distances from the nodes in the clusters of the goals to the goals
+        int best = UNREACHED;
+        int bestGoal = -1;
+        for (int i = 0; i < numGoals; i ++) {
+            int g = goalX[i] + goalY[i] * numW;
+            if (staticMap[g]) {
+                continue;
+            }
+            searchCluster(g);
+            if (cellStamp[start] == cellGeneration && cellDist[start] < best) {
+                best = cellDist[start];
+                bestGoal = g;
+            }
+            int k = clusterOf(g);
+            for (int j = clusterStart[k]; j < clusterStart[k + 1]; j ++) {
+                int v = clusterNodes[j];
+                int c = nodeCell[v];
+                if (cellStamp[c] == cellGeneration
+                        && (goalStamp[v] != nodeGeneration || cellDist[c] < goalCost[v])) {
+                    goalStamp[v] = nodeGeneration;
+                    goalCost[v] = cellDist[c];
+                    goalCell[v] = g;
+                }
+            }
+        }
+
+        // Seed the search with the nodes that the start can reach inside its cluster
+        heapSize = 0;
+        searchCluster(start);
+        for (int j = clusterStart[startCluster]; j < clusterStart[startCluster + 1]; j ++) {
+            int v = clusterNodes[j];
+            if (cellStamp[nodeCell[v]] == cellGeneration) {
+                relax(v, -1, cellDist[nodeCell[v]], goalX, goalY, numGoals);
+            }
+        }
+
+        int bestNode = -1;
+        while (heapSize > 0 && fScore[heap[0]] < best) {
+            int u = pop();
+            closedStamp[u] = nodeGeneration;
+            if (goalStamp[u] == nodeGeneration && gScore[u] + goalCost[u] < best) {
+                best = gScore[u] + goalCost[u];
+                bestNode = u;
+            }
+            for (int e = edgeStart[u]; e < edgeStart[u + 1]; e ++) {
+                int v = edgeTarget[e];
+                if (closedStamp[v] != nodeGeneration) {
+                    relax(v, u, gScore[u] + edgeCost[e], goalX, goalY, numGoals);
+                }
+            }
+        }
+
+        if (best == UNREACHED) {
+            return false;
+        }
+        if (bestNode < 0) {
+            waypoints.add(bestGoal);
+            return true;
+        }
+        for (int u = bestNode; u >= 0; u = nodeParent[u]) {
+            waypoints.add(nodeCell[u]);
+        }
+        waypoints.reverse();
+        waypoints.add(goalCell[bestNode]);
+        return true;
+    }
+
+    /** Records g as the cost of reaching node v through parent, if it improves on what v has */
+    private void relax(int v, int parent, int g, int[] goalX, int[] goalY, int numGoals) {
+        boolean seen = nodeStamp[v] == nodeGeneration;
+        if (seen && g >= gScore[v]) {
+            return;
+        }
+        gScore[v] = g;
+        fScore[v] = g + estimate(nodeCell[v], goalX, goalY, numGoals);
+        nodeParent[v] = parent;
+        if (!seen) {
+            nodeStamp[v] = nodeGeneration;
+            heapIndex[v] = heapSize;
+            heap[heapSize ++] = v;
+        }
+        siftUp(heapIndex[v]);
+    }
+
+    /** Straight step distance from the cell c to the closest goal */
+    private int estimate(int c, int[] goalX, int[] goalY, int numGoals) {
+        int x = c % numW;
+        int y = c / numW;
+        int best = UNREACHED;
+        for (int i = 0; i < numGoals; i ++) {
+            best = Math.min(best, Math.abs(goalX[i] - x) + Math.abs(goalY[i] - y));
+        }
+        return best;
+    }
+
+    private int pop() {
+        int top = heap[0];
+        heapSize --;
+        if (heapSize > 0) {
+            heap[0] = heap[heapSize];
+            heapIndex[heap[0]] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    private void siftUp(int i) {
+        int u = heap[i];
+        while (i > 0) {
+            int p = (i - 1) / 2;
+            if (fScore[heap[p]] <= fScore[u]) {
+                break;
+            }
+            heap[i] = heap[p];
+            heapIndex[heap[i]] = i;
+            i = p;
+        }
+        heap[i] = u;
+        heapIndex[u] = i;
+    }
+
+    private void siftDown(int i) {
+        int u = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && fScore[heap[child + 1]] < fScore[heap[child]]) {
+                child ++;
+            }
+            if (fScore[heap[child]] >= fScore[u]) {
+                break;
+            }
+            heap[i] = heap[child];
+            heapIndex[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = u;
+        heapIndex[u] = i;
+    }
+}
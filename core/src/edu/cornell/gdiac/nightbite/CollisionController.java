@@ -6,7 +6,6 @@ import com.badlogic.gdx.physics.box2d.ContactImpulse;
 import com.badlogic.gdx.physics.box2d.ContactListener;
 import com.badlogic.gdx.physics.box2d.Manifold;
 import edu.cornell.gdiac.nightbite.entity.*;
-import edu.cornell.gdiac.util.SoundController;
 
 
 public class CollisionController implements ContactListener {
@@ -142,11 +141,11 @@ public class CollisionController implements ContactListener {
                     item_obj.setHeld(thief);
                 }
                 player.clearInventory();
-                SoundController.getInstance().play(STEAL_SOUND, STEAL_SOUND, false, Assets.VOLUME);
+                worldModel.getContext().getSounds().play(STEAL_SOUND, STEAL_SOUND, false, Assets.VOLUME);
             } else if (thief.hasItem()) {
                 thief.playerTakesItem(); // Player takes the item
                 thief.resetThief(); // Reset attack status
-                SoundController.getInstance().play(STEAL_SOUND, STEAL_SOUND, false, Assets.VOLUME);
+                worldModel.getContext().getSounds().play(STEAL_SOUND, STEAL_SOUND, false, Assets.VOLUME);
             }
             thief.resetContactcooldown();
 
@@ -166,7 +165,7 @@ public class CollisionController implements ContactListener {
             }
             player.setDead();
 
-            SoundController.getInstance().play(FX_FALL_FILE, FX_FALL_FILE, false, Assets.VOLUME);
+            worldModel.getContext().getSounds().play(FX_FALL_FILE, FX_FALL_FILE, false, Assets.VOLUME);
 
         } else if (object instanceof ItemModel) {
             // Player-Item
@@ -208,7 +207,7 @@ public class CollisionController implements ContactListener {
             // Enemy-Hole collision
             enemy.setDead();
             enemy.playerTakesItem();
-            SoundController.getInstance().play(FX_FALL_FILE, FX_FALL_FILE, false, Assets.VOLUME);
+            worldModel.getContext().getSounds().play(FX_FALL_FILE, FX_FALL_FILE, false, Assets.VOLUME);
         }
     }
 
@@ -3,7 +3,6 @@ package edu.cornell.gdiac.nightbite;
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.math.GridPoint2;
 import com.badlogic.gdx.math.Vector2;
-import edu.cornell.gdiac.util.PooledList;
 
 import java.util.ArrayList;
 
@@ -15,15 +14,17 @@ public class Debug {
     // If we want to do this legitly we should have debug modules that we can enable
     // or disable at will
 
-    private PooledList<GridPoint2> path;
+    private LatticePath path;
     private WorldModel world;
     private int countdown;
     private ArrayList<GridPoint2> target;
+    private GridPoint2 source;
 
     public Debug() {
-        path = new PooledList<>();
+        path = new LatticePath();
         target = new ArrayList<>();
         target.add(new GridPoint2(2, 5));
+        source = new GridPoint2(9, 6);
     }
 
     public void updatePathfinding(AILattice ai) {
@@ -33,7 +34,7 @@ public class Debug {
         }
 
         countdown = 60;
-        ai.findPath(path, target, new GridPoint2(9,6), -1);
+        ai.findPath(path, target, source, -1);
 
         // for (GridPoint2 p : path) {
         //     System.out.printf("(%x, %x)\n", p.x, p.y);
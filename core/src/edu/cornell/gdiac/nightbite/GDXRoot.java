@@ -106,13 +106,14 @@ public class GDXRoot extends Game implements ScreenListener {
 	public void create() {
 		canvas = GameCanvas.getInstance();
 		loading = new LoadController(canvas, manager, 1);
-		levelSelect = new LevelSelectController(canvas);
+		MechanicManager input = new MechanicManager();
+		levelSelect = new LevelSelectController(canvas, input);
 		pause = new PauseController(canvas);
 		tutorial = new TutorialController(canvas);
 		levelEnded = new LevelEndedController(canvas);
 
 		assets = new Assets(manager);
-		game = new WorldController();
+		game = new WorldController(new GameContext(canvas, SoundController.getInstance(), input));
 
 		loading.setScreenListener(this);
 		setScreen(loading);
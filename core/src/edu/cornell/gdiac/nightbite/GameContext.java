@@ -0,0 +1,104 @@
+package edu.cornell.gdiac.nightbite;
+
+import com.badlogic.gdx.math.RandomXS128;
+import edu.cornell.gdiac.nightbite.entity.LevelController;
+import edu.cornell.gdiac.util.SoundController;
+
+/**
+ * Everything a world needs from outside of itself.
+ * <p>
+ * Worlds used to reach for singletons, which meant only one could exist at a time. Each
+ * world now gets its own context instead, so that many can run side by side, as in
+ * headless batch runs. Loaded textures in Assets are the only state worlds still share,
+ * and those are never changed once loaded.
+ */
+public class GameContext {
+    /** Where the world is drawn, or null if it runs headless */
+    private final GameCanvas canvas;
+    /** Plays the world's sound effects */
+    private final SoundController sounds;
+    /** Where the players' controls come from */
+    private final MechanicManager input;
+    /** Reads level files into the world */
+    private final LevelController levels = new LevelController();
+    /** Every random choice made in the world */
+    private final RandomXS128 random;
+    /** Whether AI searches run on the worker threads shared by every world */
+    private final boolean asyncPlanning;
+
+    /**
+     * Creates a context for a world shown in a window, with an unseeded random generator.
+     *
+     * @param canvas Where the world is drawn
+     * @param sounds Plays the world's sound effects
+     * @param input  Where the players' controls come from
+     */
+    public GameContext(GameCanvas canvas, SoundController sounds, MechanicManager input) {
+        this(canvas, sounds, input, new RandomXS128(), true);
+    }
+
+    /**
+     * Creates a context.
+     * <p>
+     * Worlds that are themselves stepped in parallel should not plan asynchronously, so that
+     * they search on their own thread rather than queue behind each other for the workers.
+     *
+     * @param canvas        Where the world is drawn, or null if it runs headless
+     * @param sounds        Plays the world's sound effects
+     * @param input         Where the players' controls come from
+     * @param random        Every random choice made in the world
+     * @param asyncPlanning Whether AI searches run on the shared worker threads
+     */
+    public GameContext(GameCanvas canvas, SoundController sounds, MechanicManager input,
+                       RandomXS128 random, boolean asyncPlanning) {
+        this.canvas = canvas;
+        this.sounds = sounds;
+        this.input = input;
+        this.random = random;
+        this.asyncPlanning = asyncPlanning;
+    }
+
+    /**
+     * Creates a context for a world with no window, no sound and nobody at the controls.
+     *
+     * @param seed Seed for the world's random generator
+     */
+    public static GameContext headless(long seed) {
+        return new GameContext(null, new SoundController(), new MechanicManager(new IdleController()),
+                new RandomXS128(seed), false);
+    }
+
+    public GameCanvas getCanvas() {
+        return canvas;
+    }
+
+    public SoundController getSounds() {
+        return sounds;
+    }
+
+    public MechanicManager getInput() {
+        return input;
+    }
+
+    public LevelController getLevels() {
+        return levels;
+    }
+
+    public RandomXS128 getRandom() {
+        return random;
+    }
+
+    public boolean isAsyncPlanning() {
+        return asyncPlanning;
+    }
+
+    /** Returns a random number between start (inclusive) and end (inclusive), like MathUtils.random */
+    public int random(int start, int end) {
+        return start + random.nextInt(end - start + 1);
+    }
+
+    /** Returns a random number between start (inclusive) and end (exclusive), like MathUtils.random */
+    public float random(float start, float end) {
+        return start + random.nextFloat() * (end - start);
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * HeadlessRoot.java
+ *
+ * This is the root class for running levels without a window, for balancing runs,
+ * soak tests and benchmarks on machines with no GPU.  It plays the role of GDXRoot,
+ * but skips every menu and goes straight to the level, which it plays many times over
+ * with nobody at the controls, on every core, as fast as the CPU allows.
+ *
+ * Textures are still loaded, because object sizes are measured from them, but they are
+ * uploaded to a graphics context that does nothing.  Nothing is lit or drawn.
+ */
+package edu.cornell.gdiac.nightbite;
+
+import com.badlogic.gdx.ApplicationAdapter;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.assets.AssetManager;
+import com.badlogic.gdx.assets.loaders.FileHandleResolver;
+import com.badlogic.gdx.assets.loaders.resolvers.InternalFileHandleResolver;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.g2d.BitmapFont;
+import com.badlogic.gdx.graphics.g2d.freetype.FreeTypeFontGenerator;
+import com.badlogic.gdx.graphics.g2d.freetype.FreeTypeFontGeneratorLoader;
+import com.badlogic.gdx.graphics.g2d.freetype.FreetypeFontLoader;
+import com.badlogic.gdx.math.RandomXS128;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.TimeUtils;
+import edu.cornell.gdiac.util.ExitCodes;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Root class for headless simulations.
+ * <p>
+ * Every run is a match of its own, with its own world, physics, AI and random numbers, so
+ * runs are spread over a fork/join pool and played side by side. Each match loads the level
+ * fresh and steps it one fixed tick at a time, until the level ends or the time limit is
+ * reached. Timings for each match and for all of them are logged once they finish, and
+ * then the application exits.
+ */
+public class HeadlessRoot extends ApplicationAdapter {
+    /** Tag for log messages */
+    private static final String TAG = "Simulation";
+    /** Window size that object sizes are measured against, the same as the desktop game */
+    public static final int DEFAULT_WIDTH = 1280;
+    public static final int DEFAULT_HEIGHT = 768;
+
+    /** Path to the level JSON to simulate */
+    private final String levelJSON;
+    /** Item theme of the level */
+    private final String itemName;
+    /** Most ticks to simulate per run, or 0 to run until the level ends */
+    private final int maxTicks;
+    /** Number of times to play the level */
+    private final int runs;
+    /** Seed of the first run, or 0 to leave every run unseeded */
+    private final long seed;
+    /** Number of runs to play at once */
+    private final int threads;
+
+    /** AssetManager to load game assets (textures, sounds, etc.) */
+    private AssetManager manager;
+    /** Whether every run has finished */
+    private boolean done;
+
+    /**
+     * Creates a new simulation of a level, playing one run per available processor at once.
+     *
+     * @param levelJSON Path to the level JSON, relative to the assets folder
+     * @param itemName  Item theme of the level, such as "egg"
+     * @param maxTicks  Most ticks to simulate per run, or 0 to run until the level ends
+     * @param runs      Number of times to play the level
+     * @param seed      Seed of the first run, or 0 to leave every run unseeded
+     */
+    public HeadlessRoot(String levelJSON, String itemName, int maxTicks, int runs, long seed) {
+        this(levelJSON, itemName, maxTicks, runs, seed, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new simulation of a level.
+     * <p>
+     * Run i is seeded with seed + i, so any single run can be played again on its own.
+     *
+     * @param levelJSON Path to the level JSON, relative to the assets folder
+     * @param itemName  Item theme of the level, such as "egg"
+     * @param maxTicks  Most ticks to simulate per run, or 0 to run until the level ends
+     * @param runs      Number of times to play the level
+     * @param seed      Seed of the first run, or 0 to leave every run unseeded
+     * @param threads   Number of runs to play at once
+     */
+    public HeadlessRoot(String levelJSON, String itemName, int maxTicks, int runs, long seed, int threads) {
+        this.levelJSON = levelJSON;
+        this.itemName = itemName;
+        this.maxTicks = maxTicks;
+        this.runs = runs;
+        this.seed = seed;
+        this.threads = Math.max(threads, 1);
+    }
+
+    /**
+     * Called when the Application is first created.
+     * <p>
+     * This loads every asset up front, since there is no loading screen to hide it behind.
+     */
+    @Override
+    public void create() {
+        if (Gdx.gl == null) {
+            Gdx.gl = Gdx.gl20 = createNullGL();
+        }
+
+        manager = new AssetManager();
+        FileHandleResolver resolver = new InternalFileHandleResolver();
+        manager.setLoader(FreeTypeFontGenerator.class, new FreeTypeFontGeneratorLoader(resolver));
+        manager.setLoader(BitmapFont.class, ".ttf", new FreetypeFontLoader(resolver));
+        Assets assets = new Assets(manager);
+        manager.finishLoading();
+        assets.loadContent(manager);
+    }
+
+    /**
+     * Called when the Application should render itself.
+     * <p>
+     * The first call plays every run, blocking until they have all finished, and exits.
+     */
+    @Override
+    public void render() {
+        if (done) {
+            return;
+        }
+        done = true;
+
+        long start = TimeUtils.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long totalTicks;
+        try {
+            totalTicks = pool.submit(() -> IntStream.range(0, runs).parallel().mapToLong(this::play).sum()).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new GdxRuntimeException("Simulation failed", e);
+        } finally {
+            pool.shutdown();
+        }
+        Gdx.app.log(TAG, String.format("%d runs of %s on %d threads: %s",
+                runs, levelJSON, threads, describe(totalTicks, TimeUtils.nanoTime() - start)));
+        Gdx.app.exit();
+    }
+
+    /** Called when the Application is destroyed. */
+    @Override
+    public void dispose() {
+        if (manager != null) {
+            manager.clear();
+            manager.dispose();
+            manager = null;
+        }
+    }
+
+    /**
+     * Plays one run from scratch in a world of its own, and logs how it went.
+     *
+     * @param run Index of the run, counting from 0
+     * @return Number of ticks simulated
+     */
+    private long play(int run) {
+        GameContext context = GameContext.headless(seed != 0 ? seed + run : new RandomXS128().nextLong());
+        WorldController game = new WorldController(context);
+        game.setHeadless(true);
+        game.resize(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+        game.setLevel(levelJSON, itemName, -1);
+        game.reset();
+
+        long runStart = TimeUtils.nanoTime();
+        WorldModel world = game.getWorldModel();
+        int ticks = 0;
+        while (!world.isComplete() && (maxTicks <= 0 || ticks < maxTicks)) {
+            game.simulate(WorldController.WORLD_STEP);
+            world = game.getWorldModel();
+            ticks ++;
+        }
+        long elapsed = TimeUtils.nanoTime() - runStart;
+
+        String outcome = "running";
+        if (world.isComplete()) {
+            outcome = world.getLevelExitCode() == ExitCodes.LEVEL_PASS ? "passed" : "failed";
+        }
+        Gdx.app.log(TAG, String.format("run %d: %s after %d ticks (%.1f s), %s",
+                run + 1, outcome, ticks, ticks * WorldController.WORLD_STEP, describe(ticks, elapsed)));
+        game.dispose();
+        return ticks;
+    }
+
+    /** Describes how fast ticks were simulated in the given nanoseconds */
+    private static String describe(long ticks, long nanos) {
+        double seconds = nanos / 1e9;
+        return String.format("%.3f s wall, %.3f ms per tick, %.0fx real time",
+                seconds, seconds * 1000 / Math.max(ticks, 1),
+                ticks * WorldController.WORLD_STEP / Math.max(seconds, 1e-9));
+    }
+
+    /**
+     * Creates a graphics context where every call does nothing and returns zero.
+     * <p>
+     * The headless backend has no OpenGL at all, so loading a texture would fail. With this,
+     * textures keep their sizes from the image files but are never uploaded anywhere.
+     */
+    private static GL20 createNullGL() {
+        return (GL20) Proxy.newProxyInstance(GL20.class.getClassLoader(), new Class<?>[]{GL20.class},
+                (proxy, method, args) -> {
+                    Class<?> type = method.getReturnType();
+                    if (type == boolean.class) {
+                        return false;
+                    } else if (type == int.class) {
+                        return 0;
+                    } else if (type == float.class) {
+                        return 0f;
+                    } else if (type == String.class) {
+                        return "";
+                    }
+                    return null;
+                });
+    }
+}
@@ -0,0 +1,8 @@
+package edu.cornell.gdiac.nightbite;
+
+/** A player who never touches the controls, for headless simulations */
+public class IdleController extends MechanicController {
+    @Override
+    public void poll() {
+    }
+}
@@ -0,0 +1,120 @@
+package edu.cornell.gdiac.nightbite;
+
+/**
+ * Reusable buffer of lattice cells produced by AILattice.findPath.
+ *
+ * The path is stored as two flat int arrays so that replanning only overwrites
+ * the arrays instead of allocating a node per waypoint. The arrays only grow
+ * when a path is longer than anything this buffer has held before.
+ */
+public class LatticePath {
+    private static final int DEFAULT_CAPACITY = 32;
+
+    private int[] xs;
+    private int[] ys;
+    /** Index of the next waypoint to walk to */
+    private int head;
+    /** One past the index of the last waypoint */
+    private int tail;
+
+    public LatticePath() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LatticePath(int capacity) {
+        xs = new int[Math.max(capacity, 1)];
+        ys = new int[Math.max(capacity, 1)];
+    }
+
+    public void clear() {
+        head = 0;
+        tail = 0;
+    }
+
+    public int size() {
+        return tail - head;
+    }
+
+    public boolean isEmpty() {
+        return head >= tail;
+    }
+
+    public void add(int x, int y) {
+        ensureCapacity(tail + 1);
+        xs[tail] = x;
+        ys[tail] = y;
+        tail ++;
+    }
+
+    /**
+     * Discards the contents and makes room for exactly length waypoints,
+     * to be filled in with set(). Used when a path is built back to front.
+     */
+    public void reset(int length) {
+        head = 0;
+        tail = 0;
+        ensureCapacity(length);
+        tail = length;
+    }
+
+    /** Keeps only the first length waypoints */
+    public void truncate(int length) {
+        tail = Math.min(tail, head + length);
+    }
+
+    /** Makes this path a copy of other */
+    public void set(LatticePath other) {
+        reset(other.size());
+        System.arraycopy(other.xs, other.head, xs, 0, other.size());
+        System.arraycopy(other.ys, other.head, ys, 0, other.size());
+    }
+
+    public void set(int i, int x, int y) {
+        xs[head + i] = x;
+        ys[head + i] = y;
+    }
+
+    public int getX(int i) {
+        return xs[head + i];
+    }
+
+    public int getY(int i) {
+        return ys[head + i];
+    }
+
+    public int getHeadX() {
+        if (isEmpty()) {
+            throw new IndexOutOfBoundsException();
+        }
+        return xs[head];
+    }
+
+    public int getHeadY() {
+        if (isEmpty()) {
+            throw new IndexOutOfBoundsException();
+        }
+        return ys[head];
+    }
+
+    /** Drops the first waypoint, once it has been reached */
+    public void poll() {
+        if (head < tail) {
+            head ++;
+        }
+    }
+
+    private void ensureCapacity(int n) {
+        if (n <= xs.length) {
+            return;
+        }
+        int capacity = Math.max(n, xs.length * 2);
+        int[] nx = new int[capacity];
+        int[] ny = new int[capacity];
+        System.arraycopy(xs, head, nx, 0, tail - head);
+        System.arraycopy(ys, head, ny, 0, tail - head);
+        tail -= head;
+        head = 0;
+        xs = nx;
+        ys = ny;
+    }
+}
@@ -68,6 +68,8 @@ public class LevelSelectController implements Screen, InputProcessor {
 
     /** Reference to GameCanvas created by the root */
     private GameCanvas canvas;
+    /** Where the players' controls come from */
+    private MechanicManager input;
 
     /** Whether or not this player mode is still active */
     private boolean active;
@@ -103,8 +105,9 @@ public class LevelSelectController implements Screen, InputProcessor {
     };
     private int[] xposList;
 
-    public LevelSelectController(GameCanvas canvas) {
+    public LevelSelectController(GameCanvas canvas, MechanicManager input) {
         this.canvas = canvas;
+        this.input = input;
 
         active = true;
         startGame = false;
@@ -212,7 +215,7 @@ public class LevelSelectController implements Screen, InputProcessor {
 
     private void update(float delta) {
         // TODO only controlled by player one
-        MechanicManager manager = MechanicManager.getInstance();
+        MechanicManager manager = input;
         manager.update();
         boolean playerDidEnter = manager.didEnter();
         int playerHorizontal = dirPressed();
@@ -0,0 +1,189 @@
+package edu.cornell.gdiac.nightbite;
+
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
+import edu.cornell.gdiac.nightbite.entity.HumanoidModel;
+import edu.cornell.gdiac.nightbite.entity.PlayerModel;
+
+import java.util.Arrays;
+
+/**
+ * Steers agents around each other with reciprocal velocity obstacles (RVO).
+ * <p>
+ * Paths only see other agents as occupied cells, so two agents walking toward each other
+ * would otherwise meet head on and push through each other. Each agent here picks, among a
+ * few sampled velocities, the one closest to where its path wants it to go that does not run
+ * into a neighbour soon. Every agent assumes its neighbours do the same and take half of the
+ * effort to avoid each other, which keeps them from dithering back and forth.
+ * <p>
+ * Players are not avoided, since enemies usually want to reach them.
+ */
+public class LocalAvoidance {
+    /** Neighbours further than this, in world units, are ignored */
+    private static final float NEIGHBOUR_RADIUS = 2f;
+    /** Collisions further ahead than this, in seconds, are ignored */
+    private static final float TIME_HORIZON = 1f;
+    /** Penalty of a collision one second ahead, against a velocity one full speed off the preferred one */
+    private static final float COLLISION_WEIGHT = 1.5f;
+    /** Directions sampled, evenly spaced around the circle */
+    private static final int DIRECTIONS = 16;
+    /** Fractions of full speed sampled in each direction */
+    private static final float[] SPEEDS = {1f, 0.5f};
+    /** Slowest that agents are assumed to walk, so that agents starting from rest still look ahead */
+    private static final float MIN_SPEED = 1f;
+    /** Neighbours slower than this are standing still, and are not counted on to do their half */
+    private static final float STILL_SPEED = 0.1f;
+
+    private final Array<HumanoidModel> neighbours = new Array<>(false, 16);
+    /** Positions relative to the agent, velocities and combined radii of the neighbours that matter */
+    private float[] px = new float[16];
+    private float[] py = new float[16];
+    private float[] vx = new float[16];
+    private float[] vy = new float[16];
+    private float[] radius = new float[16];
+    /** Whether each neighbour is walking, and so avoids the agent as much as the agent avoids it */
+    private boolean[] reciprocal = new boolean[16];
+    private int count;
+
+    /**
+     * Replaces dir, the direction an agent wants to walk in, with the direction and fraction of
+     * its speed that best avoid the agents around it. dir is left alone if nothing is in the way.
+     *
+     * @param agent The agent that is walking
+     * @param dir   Normalized direction, or zero to stand still
+     * @param hash  Every agent, bucketed by the position of its feet
+     * @return dir, for chaining
+     */
+    public Vector2 adjust(HumanoidModel agent, Vector2 dir, SpatialHash<HumanoidModel> hash) {
+        if (hash == null || dir.isZero()) {
+            return dir;
+        }
+        Vector2 feet = agent.getFeetPosition();
+        float ax = feet.x;
+        float ay = feet.y;
+        Vector2 velocity = agent.getLinearVelocity();
+        float avx = velocity.x;
+        float avy = velocity.y;
+        float speed = Math.max((float) Math.sqrt(avx * avx + avy * avy), MIN_SPEED);
+
+        gather(agent, ax, ay, hash);
+        if (count == 0) {
+            return dir;
+        }
+
+        float prefX = dir.x * speed;
+        float prefY = dir.y * speed;
+        if (timeToCollision(prefX, prefY, avx, avy) >= TIME_HORIZON) {
+            return dir;
+        }
+
+        float bestX = prefX;
+        float bestY = prefY;
+        float bestPenalty = penalty(prefX, prefY, prefX, prefY, avx, avy, speed);
+        for (int i = 0; i < DIRECTIONS; i ++) {
+            float angle = MathUtils.PI2 * i / DIRECTIONS;
+            for (float fraction : SPEEDS) {
+                float cx = MathUtils.cos(angle) * speed * fraction;
+                float cy = MathUtils.sin(angle) * speed * fraction;
+                float p = penalty(cx, cy, prefX, prefY, avx, avy, speed);
+                if (p < bestPenalty) {
+                    bestPenalty = p;
+                    bestX = cx;
+                    bestY = cy;
+                }
+            }
+        }
+        // Standing still is always a choice
+        if (penalty(0, 0, prefX, prefY, avx, avy, speed) < bestPenalty) {
+            bestX = 0;
+            bestY = 0;
+        }
+        return dir.set(bestX / speed, bestY / speed);
+    }
+
+    /** Collects the neighbours of the agent at (ax, ay) that it should avoid */
+    private void gather(HumanoidModel agent, float ax, float ay, SpatialHash<HumanoidModel> hash) {
+        neighbours.clear();
+        hash.query(ax, ay, NEIGHBOUR_RADIUS, neighbours);
+        count = 0;
+        for (int i = 0; i < neighbours.size; i ++) {
+            HumanoidModel other = neighbours.get(i);
+            if (other == agent || other instanceof PlayerModel) {
+                continue;
+            }
+            if (count == px.length) {
+                grow();
+            }
+            Vector2 feet = other.getFeetPosition();
+            px[count] = feet.x - ax;
+            py[count] = feet.y - ay;
+            Vector2 velocity = other.getLinearVelocity();
+            vx[count] = velocity.x;
+            vy[count] = velocity.y;
+            radius[count] = (agent.getWidth() + other.getWidth()) / 2;
+            reciprocal[count] = velocity.len2() > STILL_SPEED * STILL_SPEED;
+            count ++;
+        }
+    }
+
+    private void grow() {
+        int size = px.length * 2;
+        px = Arrays.copyOf(px, size);
+        py = Arrays.copyOf(py, size);
+        vx = Arrays.copyOf(vx, size);
+        vy = Arrays.copyOf(vy, size);
+        radius = Arrays.copyOf(radius, size);
+        reciprocal = Arrays.copyOf(reciprocal, size);
+    }
+
+    /**
+     * How bad it is for an agent moving at (avx, avy) to switch to (cx, cy): the distance from the
+     * preferred velocity, in full speeds, plus a penalty that grows as a collision draws near.
+     */
+    private float penalty(float cx, float cy, float prefX, float prefY, float avx, float avy, float speed) {
+        float dx = cx - prefX;
+        float dy = cy - prefY;
+        float stray = (float) Math.sqrt(dx * dx + dy * dy) / speed;
+        float t = timeToCollision(cx, cy, avx, avy);
+        if (t >= TIME_HORIZON) {
+            return stray;
+        }
+        return stray + COLLISION_WEIGHT / Math.max(t, 1e-3f);
+    }
+
+    /**
+     * Seconds until an agent moving at (avx, avy) that switches to (cx, cy) first touches a
+     * neighbour, or infinity if it never does. Against a walking neighbour, the reciprocal velocity
+     * obstacle is that of the velocity 2 * c - a relative to it, as each side takes half of the
+     * avoiding. Against one standing still, it is the plain velocity obstacle of c.
+     */
+    private float timeToCollision(float cx, float cy, float avx, float avy) {
+        float best = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < count; i ++) {
+            float rx = reciprocal[i] ? 2 * cx - avx - vx[i] : cx - vx[i];
+            float ry = reciprocal[i] ? 2 * cy - avy - vy[i] : cy - vy[i];
+            float t = rayCircle(px[i], py[i], rx, ry, radius[i]);
+            best = Math.min(best, t);
+        }
+        return best;
+    }
+
+    /**
+     * Time at which a point leaving the origin with velocity (rx, ry) enters the circle of radius r
+     * around (cx, cy). If it starts inside, 0 when it is moving deeper in and infinity otherwise.
+     */
+    private static float rayCircle(float cx, float cy, float rx, float ry, float r) {
+        float c = cx * cx + cy * cy - r * r;
+        float b = rx * cx + ry * cy;
+        if (c < 0) {
+            return b > 0 ? 0 : Float.POSITIVE_INFINITY;
+        }
+        float a = rx * rx + ry * ry;
+        float discriminant = b * b - a * c;
+        if (b <= 0 || a == 0 || discriminant < 0) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return (b - (float) Math.sqrt(discriminant)) / a;
+    }
+}
@@ -5,15 +5,6 @@ public class MechanicManager {
 
     private static final int SUPPORTED_CONTROLLERS = 2;
 
-    public static MechanicManager instance;
-
-    public static MechanicManager getInstance() {
-        if (instance == null) {
-            instance = new MechanicManager();
-        }
-        return instance;
-    }
-
     public MechanicManager() {
         // TODO: stop hardcoding stuff
         controllers = new MechanicController[SUPPORTED_CONTROLLERS];
@@ -23,6 +14,12 @@ public class MechanicManager {
 //        connected++;
     }
 
+    /** Creates a manager over the given controllers, rather than the keyboard and gamepads */
+    public MechanicManager(MechanicController... controllers) {
+        this.controllers = controllers;
+        connected = controllers.length;
+    }
+
     private int connected = 0;
 
     private MechanicController[] controllers;
@@ -0,0 +1,62 @@
+package edu.cornell.gdiac.nightbite;
+
+import com.badlogic.gdx.math.Vector2;
+import edu.cornell.gdiac.nightbite.entity.PlayerModel;
+
+import java.util.List;
+
+/**
+ * What the enemies know about the players this tick.
+ * <p>
+ * There are only a handful of players, so the world copies their state into flat arrays once
+ * per tick. Enemies then answer questions like "is a player near my post" with a few distance
+ * checks, rather than each asking the physics engine.
+ */
+public class Perception {
+    private float[] x = new float[0];
+    private float[] y = new float[0];
+    private boolean[] alive = new boolean[0];
+    private int size;
+
+    /** Takes a new snapshot of players */
+    public void update(List<PlayerModel> players) {
+        size = players.size();
+        if (size > x.length) {
+            x = new float[size];
+            y = new float[size];
+            alive = new boolean[size];
+        }
+        for (int i = 0; i < size; i ++) {
+            PlayerModel p = players.get(i);
+            Vector2 pos = p.getPosition();
+            x[i] = pos.x;
+            y[i] = pos.y;
+            alive[i] = p.isAlive();
+        }
+    }
+
+    /**
+     * Whether a living player is within radius of (px, py) along both axes. This is the square
+     * the physics engine used to be queried with, so level tuning is unchanged.
+     */
+    public boolean anyWithinBox(float px, float py, float radius) {
+        for (int i = 0; i < size; i ++) {
+            if (alive[i] && Math.abs(x[i] - px) <= radius && Math.abs(y[i] - py) <= radius) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Whether a living player is within radius of (px, py) */
+    public boolean anyWithin(float px, float py, float radius) {
+        for (int i = 0; i < size; i ++) {
+            float dx = x[i] - px;
+            float dy = y[i] - py;
+            if (alive[i] && dx * dx + dy * dy < radius * radius) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,276 @@
+package edu.cornell.gdiac.nightbite;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.math.GridPoint2;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Pool;
+import edu.cornell.gdiac.util.PooledList;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Spreads path replanning for every AIController in a world across frames.
+ * <p>
+ * Controllers queue a request when their path is due instead of planning on the spot.
+ * Requests are served in priority order, oldest first.
+ * <p>
+ * In asynchronous mode, each tick the scheduler publishes a snapshot of the lattice and
+ * hands up to MAX_IN_FLIGHT requests to a small pool of worker threads. Finished paths are
+ * delivered to their controllers at the start of a later tick, so the game thread never
+ * waits on a search.
+ * <p>
+ * In synchronous mode, requests are searched on the game thread until the lattice has
+ * expanded EXPANSION_BUDGET cells in a tick. Runs are then fully deterministic.
+ */
+public class ReplanScheduler {
+    /** Tag for log messages */
+    private static final String TAG = "ReplanScheduler";
+    /** Lattice cells that may be expanded per tick, summed over every search, in synchronous mode */
+    private static final int EXPANSION_BUDGET = 1500;
+    /** Most searches that may be running or waiting for delivery at once, in asynchronous mode */
+    private static final int MAX_IN_FLIGHT = 8;
+    /** Most worker threads shared by every scheduler */
+    private static final int MAX_WORKERS = 2;
+
+    /** Worker threads shared by every asynchronous scheduler, created on first use */
+    private static ExecutorService workers;
+
+    /** Urgency of a replan request; earlier values are served first */
+    public enum Priority {
+        CHASE,
+        RETURN,
+        ROAM
+    }
+
+    /**
+     * A copy of one controller's request, searched on a worker against a lattice snapshot.
+     * Everything here is written by the game thread before the job is submitted and read back
+     * after it comes out of the completed queue, which orders the accesses between threads.
+     */
+    static class PlanJob implements Runnable {
+        final GridPoint2 start = new GridPoint2();
+        final Array<GridPoint2> goals = new Array<>();
+        private final Array<GridPoint2> spareGoals = new Array<>();
+        int ignore;
+        float halfWidth;
+        AILattice.Heuristic heuristic;
+        boolean diagonal;
+        /** The controller's replan ticket when the request was copied */
+        int ticket;
+
+        /** Set by the game thread when the result is no longer wanted; the search is then skipped */
+        volatile boolean cancelled;
+
+        final LatticePath path = new LatticePath();
+        private AIController controller;
+        private AILattice lattice;
+        private AILattice.Snapshot snapshot;
+        private AILattice replica;
+        private ConcurrentLinkedQueue<PlanJob> completed;
+
+        void clearGoals() {
+            spareGoals.addAll(goals);
+            goals.clear();
+        }
+
+        void addGoal(int x, int y) {
+            GridPoint2 goal = spareGoals.size > 0 ? spareGoals.pop() : new GridPoint2();
+            goals.add(goal.set(x, y));
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!cancelled) {
+                    replica.adopt(snapshot);
+                    replica.findPath(path, goals, start, ignore, heuristic, diagonal, halfWidth);
+                }
+            } catch (RuntimeException e) {
+                path.clear();
+                Gdx.app.error(TAG, "Replanning failed", e);
+            } finally {
+                completed.add(this);
+            }
+        }
+    }
+
+    private PooledList<AIController>[] queues;
+    private boolean async;
+
+    private ConcurrentLinkedQueue<PlanJob> completed;
+    private Pool<PlanJob> jobPool;
+    /** Lattices with their own search space, one per job in flight */
+    private Array<AILattice> replicas;
+    /** Jobs handed to the workers that have not been finished yet, cancelled or not */
+    private Array<PlanJob> running;
+    private int inFlight;
+
+    /** Creates an asynchronous scheduler */
+    public ReplanScheduler() {
+        this(true);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ReplanScheduler(boolean async) {
+        this.async = async;
+        queues = new PooledList[Priority.values().length];
+        for (int i = 0; i < queues.length; i ++) {
+            queues[i] = new PooledList<>();
+        }
+
+        completed = new ConcurrentLinkedQueue<>();
+        jobPool = new Pool<PlanJob>() {
+            @Override
+            protected PlanJob newObject() {
+                return new PlanJob();
+            }
+        };
+        replicas = new Array<>();
+        running = new Array<>();
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    /** Queues a replan for controller, unless one is already waiting or in flight */
+    public void request(AIController controller) {
+        if (controller.isReplanQueued()) {
+            return;
+        }
+        controller.setReplanQueued(true);
+        queues[controller.getPriority().ordinal()].add(controller);
+    }
+
+    /** Delivers finished searches and starts new ones. Called once per tick. */
+    public void update(AILattice lattice) {
+        if (async) {
+            updateAsync(lattice);
+        } else {
+            updateSync(lattice);
+        }
+    }
+
+    /**
+     * Serves queued requests until this tick's budget is spent. At least one request is
+     * always served, so a single expensive search cannot stall the queue.
+     */
+    private void updateSync(AILattice lattice) {
+        long start = lattice.getExpansions();
+        boolean served = false;
+        for (PooledList<AIController> queue : queues) {
+            while (!queue.isEmpty()) {
+                if (served && lattice.getExpansions() - start >= EXPANSION_BUDGET) {
+                    return;
+                }
+                AIController controller = queue.poll();
+                controller.setReplanQueued(false);
+                controller.plan(lattice);
+                served = true;
+            }
+        }
+    }
+
+    private void updateAsync(AILattice lattice) {
+        PlanJob job;
+        while ((job = completed.poll()) != null) {
+            if (!job.cancelled) {
+                job.controller.setReplanQueued(false);
+                job.controller.deliver(job.path, job.ticket);
+            }
+            finish(job);
+        }
+
+        if (size() == 0 || inFlight >= MAX_IN_FLIGHT) {
+            return;
+        }
+
+        AILattice.Snapshot snapshot = lattice.publishSnapshot();
+        for (PooledList<AIController> queue : queues) {
+            while (!queue.isEmpty() && inFlight < MAX_IN_FLIGHT) {
+                AIController controller = queue.poll();
+                if (controller.isFollowingFlow()) {
+                    // The request was made before a chase began, and the shared field answers it now
+                    controller.setReplanQueued(false);
+                    continue;
+                }
+                job = jobPool.obtain();
+                controller.describeRequest(job);
+                job.controller = controller;
+                job.cancelled = false;
+                job.lattice = lattice;
+                job.snapshot = snapshot;
+                lattice.retain(snapshot);
+                if (replicas.size > 0) {
+                    job.replica = replicas.pop();
+                    lattice.refreshReplica(job.replica);
+                } else {
+                    job.replica = lattice.createReplica();
+                }
+                job.completed = completed;
+                inFlight ++;
+                running.add(job);
+                getWorkers().execute(job);
+            }
+        }
+    }
+
+    /** Returns the resources held by a job once it is no longer needed */
+    private void finish(PlanJob job) {
+        job.lattice.release(job.snapshot);
+        replicas.add(job.replica);
+        running.removeValue(job, true);
+        job.controller = null;
+        job.lattice = null;
+        job.snapshot = null;
+        job.replica = null;
+        jobPool.free(job);
+        inFlight --;
+    }
+
+    /** Number of requests waiting to be started */
+    public int size() {
+        int size = 0;
+        for (PooledList<AIController> queue : queues) {
+            size += queue.size();
+        }
+        return size;
+    }
+
+    /**
+     * Drops every waiting request and cancels every search handed to the workers. Cancelled
+     * searches are never delivered, and their controllers may queue again right away. Their
+     * resources are returned here if they have finished, or on a later update if not.
+     */
+    public void clear() {
+        for (PooledList<AIController> queue : queues) {
+            while (!queue.isEmpty()) {
+                queue.poll().setReplanQueued(false);
+            }
+        }
+        for (PlanJob job : running) {
+            if (!job.cancelled) {
+                job.cancelled = true;
+                job.controller.setReplanQueued(false);
+            }
+        }
+        PlanJob job;
+        while ((job = completed.poll()) != null) {
+            finish(job);
+        }
+    }
+
+    private static synchronized ExecutorService getWorkers() {
+        if (workers == null) {
+            int count = Math.max(1, Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors() - 1));
+            workers = Executors.newFixedThreadPool(count, runnable -> {
+                Thread thread = new Thread(runnable, "ai-planner");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return workers;
+    }
+}
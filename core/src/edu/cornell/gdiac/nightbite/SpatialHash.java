@@ -0,0 +1,100 @@
+package edu.cornell.gdiac.nightbite;
+
+import com.badlogic.gdx.utils.Array;
+import edu.cornell.gdiac.nightbite.obstacle.Obstacle;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid of buckets for finding the objects near a point.
+ * <p>
+ * Nearly everything stored here moves every tick, so the hash is cleared and refilled each
+ * tick rather than updated. Buckets are linked lists threaded through flat arrays, so that
+ * neither filling nor querying allocates once the arrays have grown to fit.
+ */
+public class SpatialHash<T extends Obstacle> {
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private final float cellSize;
+    private final int numW;
+    private final int numH;
+    /** First item in each bucket, or -1 */
+    private final int[] bucketHead;
+    /** Next item in the same bucket as each item, or -1 */
+    private int[] next;
+    /** Position each item was added at */
+    private float[] xs;
+    private float[] ys;
+    private final Array<T> items;
+
+    /** Creates a hash over a width by height area, with square buckets of side cellSize */
+    public SpatialHash(float width, float height, float cellSize) {
+        this.cellSize = cellSize;
+        numW = Math.max(1, (int) Math.ceil(width / cellSize));
+        numH = Math.max(1, (int) Math.ceil(height / cellSize));
+        bucketHead = new int[numW * numH];
+        Arrays.fill(bucketHead, -1);
+        next = new int[DEFAULT_CAPACITY];
+        xs = new float[DEFAULT_CAPACITY];
+        ys = new float[DEFAULT_CAPACITY];
+        items = new Array<>(false, DEFAULT_CAPACITY);
+    }
+
+    public void clear() {
+        Arrays.fill(bucketHead, -1);
+        items.clear();
+    }
+
+    public int size() {
+        return items.size;
+    }
+
+    /** Adds item at (x, y). Positions outside the area go into the nearest edge bucket. */
+    public void add(T item, float x, float y) {
+        int i = items.size;
+        if (i == next.length) {
+            next = Arrays.copyOf(next, i * 2);
+            xs = Arrays.copyOf(xs, i * 2);
+            ys = Arrays.copyOf(ys, i * 2);
+        }
+        items.add(item);
+        xs[i] = x;
+        ys[i] = y;
+        int b = bucketX(x) + bucketY(y) * numW;
+        next[i] = bucketHead[b];
+        bucketHead[b] = i;
+    }
+
+    /**
+     * Adds to out every item that was added within radius of (x, y).
+     *
+     * @return the number of items added to out
+     */
+    public int query(float x, float y, float radius, Array<T> out) {
+        int found = 0;
+        float radius2 = radius * radius;
+        int maxX = bucketX(x + radius);
+        int maxY = bucketY(y + radius);
+        for (int by = bucketY(y - radius); by <= maxY; by ++) {
+            for (int bx = bucketX(x - radius); bx <= maxX; bx ++) {
+                for (int i = bucketHead[bx + by * numW]; i >= 0; i = next[i]) {
+                    float dx = xs[i] - x;
+                    float dy = ys[i] - y;
+                    if (dx * dx + dy * dy <= radius2) {
+                        out.add(items.get(i));
+                        found ++;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private int bucketX(float x) {
+        return Math.min(Math.max((int) Math.floor(x / cellSize), 0), numW - 1);
+    }
+
+    private int bucketY(float y) {
+        return Math.min(Math.max((int) Math.floor(y / cellSize), 0), numH - 1);
+    }
+}
@@ -52,6 +52,8 @@ public class WorldController implements Screen, InputProcessor {
     public static final int WORLD_VELOC = 6;
     /** Number of position iterations for the constrain solvers. */
     public static final int WORLD_POSIT = 2;
+    /** Most physics steps taken in one frame before the game is allowed to fall behind */
+    public static final int MAX_STEPS_PER_FRAME = 5;
     private static String FX_PICKUP_FILE = "audio/pickup.wav";
 
     /** Reference to the game canvas */
@@ -73,6 +75,15 @@ public class WorldController implements Screen, InputProcessor {
     private boolean debug;
     /** Path to the level JSON that is currently loaded */
     private String selectedLevelJSON;
+    /** Seconds of game time that have passed but not yet been simulated */
+    private float accumulator;
+    /**
+     * Whether the player pressed dash, throw or whack since the last step.
+     * <p>
+     * Presses only last the frame they were polled in, but a frame may run several steps or
+     * none at all, so they are held here until a step acts on them.
+     */
+    private boolean pendingDash, pendingThrow, pendingWhack;
     private String levelItemName;
     private int selectedLevelIndex;
     private Vector2 pointWokDir;
@@ -80,17 +91,27 @@ public class WorldController implements Screen, InputProcessor {
     public float screenWidth;
     public float screenHeight;
 
-    private static int GAME_DURATION = 120;  // in seconds
+    private int gameDuration = 120;  // in seconds
     private long timerStart;  // in nanoseconds
     private long timerEnd;
     private float timeElapsed;
 
     private boolean tutorialPopup;
+    /** Whether this world runs without a window, for simulations. Nothing is lit or drawn. */
+    private boolean headless;
+    /** Where this world gets its input, sounds and random numbers from */
+    private final GameContext context;
 
-    /** Create a new game world */
-    protected WorldController() {
+    /**
+     * Create a new game world
+     *
+     * @param context Where the world gets its input, sounds and random numbers from
+     */
+    protected WorldController(GameContext context) {
+        this.context = context;
+        canvas = context.getCanvas();
         setDebug(false);
-        worldModel = new WorldModel();
+        worldModel = new WorldModel(context);
         debug = false;
         active = false;
         pointWokDir = new Vector2();
@@ -107,7 +128,7 @@ public class WorldController implements Screen, InputProcessor {
     }
 
     public void checkTimeOut() {
-        if (timeElapsed > GAME_DURATION) {
+        if (timeElapsed > gameDuration) {
             worldModel.completeLevel(false);
         }
     }
@@ -134,6 +155,32 @@ public class WorldController implements Screen, InputProcessor {
         debug = value;
     }
 
+    /**
+     * Returns true if this world runs without a window.
+     *
+     * @return true if this world runs without a window.
+     */
+    public boolean isHeadless() {
+        return headless;
+    }
+
+    /**
+     * Sets whether this world runs without a window.
+     * <p>
+     * A headless world has no canvas or lighting, and is advanced with simulate() rather
+     * than render(). Call resize() first, as object sizes depend on the window size.
+     *
+     * @param value whether this world runs without a window.
+     */
+    public void setHeadless(boolean value) {
+        headless = value;
+    }
+
+    /** Returns the model of the world that is currently being played */
+    public WorldModel getWorldModel() {
+        return worldModel;
+    }
+
     /**
      * Returns the canvas associated with this controller
      * <p>
@@ -172,7 +219,7 @@ public class WorldController implements Screen, InputProcessor {
         timerFont.setColor(Color.BLACK);
         timerFont.getData().setScale(0.8f);
         timerTexture = Assets.getTextureRegion("ui/TimerNew.png");
-        GAME_DURATION = LevelController.getInstance().populate(worldModel, selectedLevelJSON, levelItemName);
+        gameDuration = context.getLevels().populate(worldModel, selectedLevelJSON, levelItemName);
         worldModel.initializeAI();
     }
 
@@ -190,9 +237,9 @@ public class WorldController implements Screen, InputProcessor {
         canvas.begin();
 
         // Draw background -> brick decorations -> lantern decorations
-        worldModel.drawBackground();
-        worldModel.drawDecorations(true);
-        worldModel.drawDecorations(false);
+        worldModel.drawBackground(canvas);
+        worldModel.drawDecorations(canvas, true);
+        worldModel.drawDecorations(canvas, false);
 
         // Draw objects
         for (Obstacle obj : worldModel.getObjects()) {
@@ -202,13 +249,13 @@ public class WorldController implements Screen, InputProcessor {
         }
 
         // Draw timer red if one fourth time left
-        if (timeElapsed > GAME_DURATION * 3/4) {
+        if (timeElapsed > gameDuration * 3/4) {
             canvas.draw(timerTexture, Color.RED, 0, 0, 20f, canvas.getHeight()-120f, timerTexture.getRegionWidth(), timerTexture.getRegionHeight());
         } else {
             canvas.draw(timerTexture, Color.WHITE, 0, 0, 20f, canvas.getHeight()-120f, timerTexture.getRegionWidth(), timerTexture.getRegionHeight());
         }
 
-        canvas.drawText(secondsToStringTime((int) (GAME_DURATION - timeElapsed)), timerFont, 76f, canvas.getHeight()-49f);
+        canvas.drawText(secondsToStringTime((int) (gameDuration - timeElapsed)), timerFont, 76f, canvas.getHeight()-49f);
 
         if (worldModel.isComplete()) {
             if (worldModel.getLevelExitCode() == ExitCodes.LEVEL_PASS) {
@@ -233,6 +280,9 @@ public class WorldController implements Screen, InputProcessor {
             for (Obstacle obj : worldModel.getObjects()) {
                 obj.drawDebug(canvas);
             }
+            for (Obstacle obj : worldModel.getStaticColliders()) {
+                obj.drawDebug(canvas);
+            }
             // debugGrid();
             worldModel.debugAI(canvas);
             worldModel.debug.drawPathfinding(canvas, worldModel.scale);
@@ -267,16 +317,21 @@ public class WorldController implements Screen, InputProcessor {
         if (worldModel != null) {
             worldModel.dispose();
         }
-        worldModel = new WorldModel();
-        worldModel.setPixelBounds();
+        worldModel = new WorldModel(context);
         CollisionController c = new CollisionController(worldModel);
         worldModel.setContactListener(c);
-        worldModel.initLighting(canvas);
+        if (headless) {
+            worldModel.setPixelBounds(screenWidth, screenHeight);
+        } else {
+            worldModel.setPixelBounds();
+            worldModel.initLighting(canvas);
+        }
         populateLevel();
         resetTimer();
-        for (LightSource l : worldModel.getLights()) {
-            l.setActive(true);
-        }
+        accumulator = 0;
+        pendingDash = false;
+        pendingThrow = false;
+        pendingWhack = false;
         // TODO not hardcode this
         tutorialPopup = selectedLevelIndex >= 0 && selectedLevelIndex <= 3;
     }
@@ -292,7 +347,7 @@ public class WorldController implements Screen, InputProcessor {
      * @return whether to process the update loop
      */
     public boolean preUpdate(float dt) {
-        MechanicManager input = MechanicManager.getInstance();
+        MechanicManager input = context.getInput();
         input.update(); // TODO: do we need bounds and scale?
 
         // TODO: use listener properly? maybe?
@@ -336,7 +391,7 @@ public class WorldController implements Screen, InputProcessor {
         checkTimeOut();
         // TODO: Refactor all player movement
 
-        MechanicManager manager = MechanicManager.getInstance();
+        MechanicManager manager = context.getInput();
 
         // TODO: IMPORTANT: All UPDATE METHODS FOR OBJECTS SHOULD NOT BE CALLED HERE
         // TODO: BUT IN POST UPDATE
@@ -355,8 +410,8 @@ public class WorldController implements Screen, InputProcessor {
 
             playerHorizontal = manager.getVelX(i);
             playerVertical = manager.getVelY(i);
-            playerDidBoost = manager.isDashing(i);
-            playerDidThrow = manager.isThrowing(i);
+            playerDidBoost = pendingDash;
+            playerDidThrow = pendingThrow;
 
             p = worldModel.getPlayers().get(i);
 
@@ -368,7 +423,7 @@ public class WorldController implements Screen, InputProcessor {
                 p.setIY(slideDirection.y);
                 playerDidBoost = false;
                 playerDidThrow = false;
-                SoundController.getInstance().play("audio/sliding.wav", "audio/sliding.wav", false, Assets.VOLUME);
+                context.getSounds().play("audio/sliding.wav", "audio/sliding.wav", false, Assets.VOLUME);
             } else {
                 // update player state
                 if (playerVertical != 0 || playerHorizontal != 0) {
@@ -419,7 +474,7 @@ public class WorldController implements Screen, InputProcessor {
                 if (!item.isHeld() && worldModel.getOverlapItem(j) && !item.isDead()) {
                     item.setHeld(p);
                     p.startgrabCooldown();
-                    SoundController.getInstance().play(FX_PICKUP_FILE, FX_PICKUP_FILE, false, Assets.VOLUME);
+                    context.getSounds().play(FX_PICKUP_FILE, FX_PICKUP_FILE, false, Assets.VOLUME);
                 }
                 j++;
             }
@@ -435,7 +490,7 @@ public class WorldController implements Screen, InputProcessor {
 
             p.setSlideDirection(playerHorizontal, playerVertical);
 
-            if (!KeyboardMap.mouse && manager.isWhack() && !p.hasItem()) {
+            if (!KeyboardMap.mouse && pendingWhack && !p.hasItem()) {
                 // This is also a side effect of the prevHoriDir and how it can't be set to 0
                 float x = p.getX() + p.getPrevHoriDir();
                 if (p.getVX() > -1 && p.getVX() < 1) {
@@ -456,11 +511,13 @@ public class WorldController implements Screen, InputProcessor {
             p.playWalkSound();
 
             // Must always update sound controller!
-            SoundController.getInstance().update();
+            context.getSounds().update();
         }
 
         Vector2 dir = new Vector2(0,0);
 
+        worldModel.updatePerception();
+        worldModel.updateNeighbours();
         for (HumanoidModel e : worldModel.getEnemies()) {
             p = worldModel.getPlayers().get(0);
             // if (p.isAlive()) {
@@ -519,7 +576,7 @@ public class WorldController implements Screen, InputProcessor {
      * physics.  The primary method is the step() method in world.  This implementation
      * works for all applications and should not need to be overwritten.
      *
-     * @param dt Number of seconds since last animation frame
+     * @param dt Number of seconds in one step, always WORLD_STEP
      */
     public void postUpdate(float dt) {
         // TODO: ADDQUEUE
@@ -529,16 +586,7 @@ public class WorldController implements Screen, InputProcessor {
         // 	addObject(addQueue.poll());
         // }
 
-        RayHandler rayhandler = worldModel.getRayhandler();
-        if (rayhandler != null) {
-            rayhandler.update();
-        }
-
-        Assets.changeMute();
-        Assets.changeMute();
-
-        // Turn the physics engine crank.
-        worldModel.worldStep(WORLD_STEP, WORLD_VELOC, WORLD_POSIT);
+        worldModel.worldStep(dt, WORLD_VELOC, WORLD_POSIT);
 
         // Garbage collect the deleted objects.
         // Note how we use the linked list nodes to delete O(1) in place.
@@ -591,15 +639,61 @@ public class WorldController implements Screen, InputProcessor {
     public void render(float delta) {
         // Instant start = Instant.now();
         if (active) {
-            if (preUpdate(delta)) {
-                update(delta);
-                postUpdate(delta);
-            }
+            simulate(delta);
             draw(delta);
         }
         // timeElapsed += (double) Duration.between(start, Instant.now()).toNanos() / 1000000000;
     }
 
+    /**
+     * Advances the game by one frame without drawing it.
+     * <p>
+     * This is the update half of render(). Headless simulations call it directly.
+     * Game logic and physics run together in fixed steps, however long the frame took, so
+     * that impulses, cooldowns and AI all tick at the same rate as the physics engine. If we
+     * fall too far behind, the backlog is dropped rather than spiral into ever longer frames.
+     * Only the lights and the interpolation used for drawing are updated once a frame.
+     *
+     * @param delta Number of seconds since last animation frame
+     */
+    public void simulate(float delta) {
+        if (!preUpdate(delta)) {
+            return;
+        }
+
+        MechanicManager input = context.getInput();
+        pendingDash |= input.isDashing(0);
+        pendingThrow |= input.isThrowing(0);
+        pendingWhack |= input.isWhack();
+
+        accumulator += delta;
+        int steps = 0;
+        while (accumulator >= WORLD_STEP && steps < MAX_STEPS_PER_FRAME) {
+            update(WORLD_STEP);
+            postUpdate(WORLD_STEP);
+            pendingDash = false;
+            pendingThrow = false;
+            pendingWhack = false;
+            accumulator -= WORLD_STEP;
+            steps ++;
+        }
+        if (accumulator >= WORLD_STEP) {
+            accumulator %= WORLD_STEP;
+        }
+        worldModel.setInterpolation(accumulator / WORLD_STEP);
+
+        RayHandler rayhandler = worldModel.getRayhandler();
+        if (rayhandler != null) {
+            rayhandler.update();
+        }
+
+        // Volume is shared by every world, so headless worlds in parallel leave it alone
+        if (!headless) {
+            Assets.changeMute();
+            Assets.changeMute();
+        }
+    }
+
     /**
      * Called when the Screen is paused.
      * <p>
@@ -14,10 +14,12 @@ import com.badlogic.gdx.physics.box2d.ContactListener;
 import com.badlogic.gdx.physics.box2d.Filter;
 import com.badlogic.gdx.physics.box2d.World;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Pool;
 import edu.cornell.gdiac.nightbite.entity.*;
 import edu.cornell.gdiac.nightbite.obstacle.Obstacle;
 import edu.cornell.gdiac.util.ExitCodes;
 import edu.cornell.gdiac.util.LightSource;
+import edu.cornell.gdiac.util.NullSource;
 import edu.cornell.gdiac.util.PointSource;
 import edu.cornell.gdiac.util.PooledList;
 
@@ -72,14 +74,22 @@ public class WorldModel {
     private ArrayList<Boolean> overlapItem = new ArrayList<>();
     /** List of firecrackers */
     private PooledList<FirecrackerModel> firecrackers;
+    /** Firecrackers waiting to be thrown, with their bodies and lights already made */
+    private FirecrackerPool firecrackerPool;
     private PooledList<FirecrackerModel> crowdUnits;
     /** List of oils */
     private HashMap<Integer, OilModel> oils;
     private ArrayList<OilModel> removedOils = new ArrayList<>();
     private int oilIndCounter = 0;
     private static final int MAX_OIL = 5;
+    /** Extra steps a path will take to avoid leaving a cell with spilled oil */
+    private static final int OIL_COST = 4;
+    /** Extra steps a path will take to avoid leaving a cell next to a crowd unit, per unit */
+    private static final int CROWD_DENSITY_COST = 1;
     /** Objects that don't move during updates */
     private PooledList<Obstacle> staticObjects;
+    /** Bodies that stand in for many static tiles at once. They are never drawn. */
+    private PooledList<Obstacle> staticColliders;
     /** All of the lights that we loaded from the JSON file */
     private Array<LightSource> lights = new Array<>();
     /** Bottom layer background textures */
@@ -90,6 +100,15 @@ public class WorldModel {
     private Sprite[][] lantern = new Sprite[20][12];
 
     private AILattice aiLattice;
+    private ReplanScheduler replanScheduler;
+    /** Living players and enemies, bucketed by the position of their feet. Refilled every tick. */
+    private SpatialHash<HumanoidModel> neighbours;
+    /** Steers walking agents around each other, using the neighbour hash */
+    private LocalAvoidance avoidance = new LocalAvoidance();
+    /** What the enemies know about the players. Refilled every tick. */
+    private Perception perception = new Perception();
+    /** Side of a bucket of the neighbour hash, in world units */
+    private static final float NEIGHBOUR_CELL_SIZE = 2f;
     public int LEVEL_COMPLETED = 0;
     public int LEVEL_TIME_OUT = 1;
     // Level exit codes
@@ -98,7 +117,11 @@ public class WorldModel {
     // TODO: REMOVE
     public Debug debug;
 
-    public WorldModel() {
+    /** Where this world gets its input, sounds and random numbers from */
+    private final GameContext context;
+
+    public WorldModel(GameContext context) {
+        this.context = context;
         world = new World(Vector2.Zero, false);
         bounds = new Rectangle(0, 0, WORLD_WIDTH, WORLD_HEIGHT);
         scale = new Vector2(1f, 1f);
@@ -108,10 +131,13 @@ public class WorldModel {
         players = new ArrayList<>();
         items = new ArrayList<>();
         firecrackers = new PooledList<>();
+        firecrackerPool = new FirecrackerPool();
         staticObjects = new PooledList<>();
+        staticColliders = new PooledList<>();
         enemies = new PooledList<>();
         crowds = new PooledList<>();
         oils = new HashMap<>();
+        replanScheduler = new ReplanScheduler(context.isAsyncPlanning());
 
         // TODO: REMOVE
         debug = new Debug();
@@ -162,6 +188,11 @@ public class WorldModel {
         return complete;
     }
 
+    /** Returns where this world gets its input, sounds and random numbers from */
+    public GameContext getContext() {
+        return context;
+    }
+
     public Iterable<ItemModel> getItemIter() {
         class ItemIterable implements Iterable<ItemModel> {
             @Override
@@ -376,10 +407,46 @@ public class WorldModel {
         return actualScale;
     }
 
+    /**
+     * Advances the physics engine by one fixed step, remembering where everything that moves
+     * was beforehand so that it can be drawn in between.
+     */
     public void worldStep(float step, int vel, int posit) {
+        for (PlayerModel p : players) {
+            p.savePosition();
+        }
+        for (HumanoidModel e : enemies) {
+            e.savePosition();
+        }
+        for (ItemModel item : items) {
+            item.savePosition();
+        }
+        for (FirecrackerModel f : firecrackers) {
+            f.savePosition();
+        }
         world.step(step, vel, posit);
     }
 
+    /**
+     * Sets how far between the last two physics steps moving objects are drawn
+     *
+     * @param alpha 0 to draw them at the previous step, 1 at the latest one
+     */
+    public void setInterpolation(float alpha) {
+        for (PlayerModel p : players) {
+            p.setInterpolation(alpha);
+        }
+        for (HumanoidModel e : enemies) {
+            e.setInterpolation(alpha);
+        }
+        for (ItemModel item : items) {
+            item.setInterpolation(alpha);
+        }
+        for (FirecrackerModel f : firecrackers) {
+            f.setInterpolation(alpha);
+        }
+    }
+
     /**
      * Returns true if the object is in bounds.
      * <p>
@@ -436,6 +503,22 @@ public class WorldModel {
         staticObjects.add(obj);
     }
 
+    /**
+     * Adds a static tile that is drawn and blocks the AI, but has no body of its own.
+     * A collider from addStaticCollider must cover it instead.
+     */
+    public void addStaticTile(ImmovableModel obj) {
+        assert inBounds(obj);
+        transformTileToWorld(obj);
+        staticObjects.add(obj);
+    }
+
+    /** Adds a body that covers static tiles for physics only */
+    public void addStaticCollider(ImmovableModel obj) {
+        initializeObject(obj);
+        staticColliders.add(obj);
+    }
+
     public void addItem(ItemModel item) {
         initializeObject(item);
         items.add(item);
@@ -458,13 +541,58 @@ public class WorldModel {
     public void initializeAI() {
 //        System.out.println(bounds);
         aiLattice = new AILattice((int) bounds.width, (int) bounds.height);
+        aiLattice.setDensityCost(CrowdUnitModel.AI_CLASS, CROWD_DENSITY_COST);
         aiLattice.populateStatic(staticObjects);
+        aiLattice.buildVisibility(AIController.RAYCAST_OFFSET);
+        aiLattice.buildNextHops();
+        neighbours = new SpatialHash<>(bounds.width, bounds.height, NEIGHBOUR_CELL_SIZE);
+    }
+
+    /** Refills the neighbour hash with the current positions of every living player and enemy */
+    public void updateNeighbours() {
+        if (neighbours == null) {
+            return;
+        }
+        neighbours.clear();
+        for (PlayerModel p : players) {
+            if (p.isAlive()) {
+                Vector2 feet = p.getFeetPosition();
+                neighbours.add(p, feet.x, feet.y);
+            }
+        }
+        for (HumanoidModel e : enemies) {
+            if (e.isAlive()) {
+                Vector2 feet = e.getFeetPosition();
+                neighbours.add(e, feet.x, feet.y);
+            }
+        }
+    }
+
+    /** Takes this tick's snapshot of the players for the enemies to sense */
+    public void updatePerception() {
+        perception.update(players);
+    }
+
+    public Perception getPerception() {
+        return perception;
+    }
+
+    public SpatialHash<HumanoidModel> getNeighbours() {
+        return neighbours;
+    }
+
+    public LocalAvoidance getAvoidance() {
+        return avoidance;
     }
 
     public AILattice getAILattice() {
         return aiLattice;
     }
 
+    public ReplanScheduler getReplanScheduler() {
+        return replanScheduler;
+    }
+
     public void debugAI(GameCanvas canvas) {
         aiLattice.drawDebug(canvas, scale);
     }
@@ -479,14 +607,65 @@ public class WorldModel {
      * @param y The y position of the firecracker enemy
      */
     public FirecrackerModel addFirecracker(float x, float y) {
-        FirecrackerModel firecracker = new FirecrackerModel(world, x, y, 1, 1);
-        firecracker.setDrawScale(getScale());
-        firecracker.setActualScale(getActualScale());
-        initializeObject(firecracker);
+        FirecrackerModel firecracker = firecrackerPool.obtain();
+        // Offset by half a tile, as if (x, y) were a tile like every other object is placed at
+        firecracker.launch(x + 0.5f, y + 0.5f);
         firecrackers.add(firecracker);
         return firecracker;
     }
 
+    /**
+     * Builds firecrackers ahead of time, so that throwing them later creates nothing.
+     *
+     * @param count Number of firecrackers to add to the pool
+     */
+    public void reserveFirecrackers(int count) {
+        firecrackerPool.reserve(count);
+    }
+
+    /**
+     * Firecrackers that are not in flight.
+     * <p>
+     * Each one is built with its body and light, and parked in between throws rather than
+     * destroyed, so that a throw does not create a Box2D body or a light mid-game.
+     */
+    private class FirecrackerPool extends Pool<FirecrackerModel> {
+        /** Every firecracker the pool has built, thrown or not */
+        private final Array<FirecrackerModel> built = new Array<>();
+
+        @Override
+        protected FirecrackerModel newObject() {
+            FirecrackerModel firecracker = new FirecrackerModel(WorldModel.this, 0, 0, 1, 1);
+            firecracker.setDrawScale(getScale());
+            firecracker.setActualScale(getActualScale());
+            firecracker.activatePhysics(world);
+
+            LightSource light = createPointLight(new float[]{0.15f, 0f, 0f, 1.0f}, 1.5f);
+            light.attachToBody(firecracker.getBody());
+            firecracker.setLight(light);
+
+            firecracker.reset();
+            built.add(firecracker);
+            return firecracker;
+        }
+
+        /** Builds count more firecrackers and parks them in the pool */
+        void reserve(int count) {
+            for (int i = 0; i < count; i ++) {
+                free(newObject());
+            }
+        }
+
+        /** Destroys the body of every firecracker the pool has built */
+        void dispose() {
+            for (FirecrackerModel firecracker : built) {
+                firecracker.deactivatePhysics(world);
+            }
+            built.clear();
+            clear();
+        }
+    }
+
     public OilModel addOil(float x, float y) {
         OilModel oil = new OilModel(x, y);
         oil.setDrawScale(getScale());
@@ -495,7 +674,9 @@ public class WorldModel {
         if (oils.size() >= MAX_OIL) { // If there are already 5 oils dropped, overwrite oldest one
             OilModel oldOil = oils.get(oilIndCounter);
             oldOil.deactivatePhysics(world);
+            addOilCost(oldOil, -OIL_COST);
         }
+        addOilCost(oil, OIL_COST);
         oils.put(oilIndCounter, oil);
         oilIndCounter = (oilIndCounter + 1) % MAX_OIL;
         return oil;
@@ -522,11 +703,39 @@ public class WorldModel {
                 oils.remove(ind1);
             }
         }
+        if (removedInd >= 0) {
+            addOilCost(oil, -OIL_COST);
+        }
         removedOils.add(oil);
         oil.markRemoved(true);
         oils.remove(oilIndCounter % MAX_OIL);
     }
 
+    /**
+     * Keeps the danger layer of the lattice in step with a firecracker: a blast is stamped on the
+     * cell under it once lit, follows it if it moves, and is cleared when the blast is over.
+     * The stamped cell is kept in the firecracker's AI cells.
+     */
+    private void updateDanger(FirecrackerModel firecracker) {
+        if (aiLattice == null) {
+            return;
+        }
+        int[] cells = firecracker.getAiCells();
+        int c = firecracker.isDangerous() ? aiLattice.getCell(firecracker.getX(), firecracker.getY()) : -1;
+        if (c != cells[0]) {
+            aiLattice.addDanger(cells[0], -1);
+            aiLattice.addDanger(c, 1);
+            cells[0] = c;
+        }
+    }
+
+    /** Adds delta to the lattice cost of the cells under oil */
+    private void addOilCost(OilModel oil, int delta) {
+        if (aiLattice != null) {
+            aiLattice.addCost(oil.getX() - 0.5f, oil.getY() - 0.5f, oil.getX() + 0.5f, oil.getY() + 0.5f, delta);
+        }
+    }
+
     public PooledList<FirecrackerModel> getFirecrackers() {
         return firecrackers;
     }
@@ -558,15 +767,20 @@ public class WorldModel {
 
     /**
      * Creates one point light, which goes in all directions.
+     * <p>
+     * Without lighting (see initLighting) this makes a light that is never drawn.
      *
      * @param color The rgba value of the light color.
      * @param dist  The radius of the light.
      */
-    public PointSource createPointLight(float[] color, float dist) {
+    public LightSource createPointLight(float[] color, float dist) {
         // ALL HARDCODED!
         float[] pos = new float[]{0.0f, 0.0f};
         int rays = 512;
 
+        if (rayhandler == null) {
+            return createNullLight(color, dist, pos[0], pos[1]);
+        }
         PointSource point = new PointSource(rayhandler, rays, Color.WHITE, dist, pos[0], pos[1]);
         point.setColor(color[0], color[1], color[2], color[3]);
         point.setSoft(true);
@@ -589,8 +803,13 @@ public class WorldModel {
      * @param y
      * @return
      */
-    public PointSource createStaticPointLight(float[] color, float dist, float x, float y) {
+    public LightSource createStaticPointLight(float[] color, float dist, float x, float y) {
         // ALL HARDCODED!
+        if (rayhandler == null) {
+            LightSource light = createNullLight(color, dist, x + 0.5f, y + 0.5f);
+            light.setStaticLight(true);
+            return light;
+        }
         PointSource point = new PointSource(rayhandler, 512, Color.WHITE, dist, x + 0.5f, y + 0.5f);
         point.setColor(color[0], color[1], color[2], color[3]);
         point.setSoft(true);
@@ -605,6 +824,14 @@ public class WorldModel {
         return point;
     }
 
+    /** Makes a light for a world without lighting, which keeps its settings but is never drawn */
+    private LightSource createNullLight(float[] color, float dist, float x, float y) {
+        NullSource light = new NullSource(dist, x, y);
+        light.setColor(color[0], color[1], color[2], color[3]);
+        lights.add(light);
+        return light;
+    }
+
     public void updateAndCullObjects(float dt) {
         // TODO: Do we need to cull staticObjects?
         // TODO: This is also unsafe
@@ -616,12 +843,20 @@ public class WorldModel {
                 PooledList<?>.Entry entry = (PooledList<?>.Entry) iterator.next();
                 Obstacle obj = (Obstacle) entry.getValue();
                 if (obj.isRemoved()) {
-                    obj.deactivatePhysics(world);
+                    if (obj instanceof FirecrackerModel) {
+                        // Parked rather than destroyed, for the next throw
+                        firecrackerPool.free((FirecrackerModel) obj);
+                    } else {
+                        obj.deactivatePhysics(world);
+                    }
                     entry.remove();
                 } else {
                     // Note that update is called last!
                     obj.update(dt);
                 }
+                if (obj instanceof FirecrackerModel) {
+                    updateDanger((FirecrackerModel) obj);
+                }
             }
         }
 
@@ -646,10 +881,10 @@ public class WorldModel {
             }
         }
 
-        aiLattice.clearDynamic();
-        aiLattice.populateDynamic(downcastIterable(players));
-        aiLattice.populateDynamic(downcastIterable(enemies));
-        // aiLattice.populateDynamic(downcastIterable(enemies));
+        aiLattice.nextTick();
+        aiLattice.updateDynamic(downcastIterable(players));
+        aiLattice.updateDynamic(downcastIterable(enemies));
+        replanScheduler.update(aiLattice);
 
         // TODO: REMOVE
         debug.updatePathfinding(aiLattice);
@@ -686,10 +921,19 @@ public class WorldModel {
         return new ObsIterable();
     }
 
+    /** Returns the bodies that stand in for many static tiles at once */
+    public Iterable<Obstacle> getStaticColliders() {
+        return staticColliders;
+    }
+
     public void dispose() {
         for (Obstacle obj : getObjects()) {
             obj.deactivatePhysics(world);
         }
+        for (Obstacle obj : staticColliders) {
+            obj.deactivatePhysics(world);
+        }
+        firecrackerPool.dispose();
 
         for (LightSource light : lights) {
             light.remove();
@@ -702,10 +946,13 @@ public class WorldModel {
         }
 
         // TODO: Clear other stuff
+        replanScheduler.clear();
         staticObjects.clear();
+        staticColliders.clear();
         // Honestly this is kind of dumb.
         // We can literally just dereference the WorldModel and all this should go away.
         staticObjects = null;
+        staticColliders = null;
         world = null;
         scale = null;
     }
@@ -733,6 +980,14 @@ public class WorldModel {
     }
 
     public void setPixelBounds() {
+        setPixelBounds(Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
+    }
+
+    /**
+     * Sets the drawing scale as if the window were width by height pixels. Headless
+     * simulations have no window, but object sizes are measured from their textures.
+     */
+    public void setPixelBounds(float width, float height) {
         // TODO: Optimizations; only perform this calculation if the canvas size has changed or something
 
         // The whole point is that if the canvas is DEFAULT_PIXEL_WIDTH x DEFAULT_PIXEL_HEIGHT and
@@ -746,8 +1001,8 @@ public class WorldModel {
 
         // scalePixel translate canonical pixel space to pixel space
         // (1920 x 1080, or otherwise indicated in WorldController)
-        float scaleCanonicalToActualWidth = Gdx.graphics.getWidth() / (CANONICAL_WIDTH - 2 * PADDING);
-        float scaleCanonicalToActualHeight = Gdx.graphics.getHeight() / (CANONICAL_HEIGHT - 2 * PADDING);
+        float scaleCanonicalToActualWidth = width / (CANONICAL_WIDTH - 2 * PADDING);
+        float scaleCanonicalToActualHeight = height / (CANONICAL_HEIGHT - 2 * PADDING);
 
         // Take the smaller scale so that we only scale diagonally or something
         // This is for asset scaling
@@ -776,7 +1031,7 @@ public class WorldModel {
 //        canonicalToActual.applyTo(actualScale);
     }
 
-    public void drawDecorations(boolean isbrick) {
+    public void drawDecorations(GameCanvas canvas, boolean isbrick) {
         for (int i = 0; i < WORLD_WIDTH; i++) {
             for (int j = 0; j < WORLD_HEIGHT; j++) {
                 Sprite sprite;
@@ -787,18 +1042,18 @@ public class WorldModel {
                 }
 
                 if (sprite != null) {
-                    sprite.draw(GameCanvas.getInstance().getSpriteBatch());
+                    sprite.draw(canvas.getSpriteBatch());
                 }
             }
         }
     }
 
-    public void drawBackground() {
+    public void drawBackground(GameCanvas canvas) {
         for (int i = 0; i < WORLD_WIDTH; i++) {
             for (int j = 0; j < WORLD_HEIGHT; j++) {
                 TextureRegion texture = background[i][j];
                 if (texture != null) {
-                    GameCanvas.getInstance().draw(
+                    canvas.draw(
                             texture, Color.WHITE,
                             0, 0,
                             i * getScale().x, j * getScale().y,
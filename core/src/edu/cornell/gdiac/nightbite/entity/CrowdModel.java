@@ -1,18 +1,45 @@
 package edu.cornell.gdiac.nightbite.entity;
 
+import com.badlogic.gdx.math.RandomXS128;
 import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
+import edu.cornell.gdiac.nightbite.AILattice;
+import edu.cornell.gdiac.nightbite.SpatialHash;
 import edu.cornell.gdiac.nightbite.WorldModel;
-import edu.cornell.gdiac.util.PooledList;
 
-import java.util.Random;
 
+/**
+ * A group of NPCs that roams together.
+ * <p>
+ * Only the leader plans a path. The others flock: they keep apart from whoever is close by,
+ * match the velocity of the crowd around them, and head for the most recent spot on the leader's
+ * trail that they can walk to in a straight line.
+ */
 public class CrowdModel {
 
-    public static int MAX_PEOPLE_IN_CROWD = 1;  // change back to 5 eventually... when less crowded
+    /** Most NPCs in one crowd, however many its level asks for */
+    public static final int MAX_PEOPLE_IN_CROWD = 64;
+    /** Fewest and most NPCs in a crowd whose level does not give its size */
+    private static final int MIN_RANDOM_CROWD = 2;
+    private static final int MAX_RANDOM_CROWD = 6;
     private static final int SPAWN_TO_ROAM_RATE = 5;
     private static final int ROAM_RADIUS = 4;
     private static final int CHANGE_LEADER_TIME = 100;
 
+    /** Followers closer than this to the spot they follow stop heading for it */
+    private static final float FOLLOW_DIST = 0.6f;
+    /** Radius around a follower in which others affect how it moves */
+    private static final float NEIGHBOUR_RADIUS = 1.5f;
+    /** Radius around a follower in which others push it away */
+    private static final float SEPARATION_RADIUS = 0.8f;
+    private static final float SEPARATION_WEIGHT = 1.5f;
+    private static final float ALIGNMENT_WEIGHT = 0.5f;
+    private static final float COHESION_WEIGHT = 1f;
+    /** Followers steering less than this stand still */
+    private static final float MIN_STEER = 0.1f;
+    /** Number of spots of the leader's trail that are remembered */
+    private static final int TRAIL_LENGTH = 16;
+
     private String[] textureList = {"character/Filmstrip/NPC1_Walk_8.png", "character/Filmstrip/NPC2_Walk_8.png", "character/Filmstrip/NPC3_Walk_8.png", "character/Filmstrip/NPC4_Walk_8.png"};
     private enum State {
         IDLE,
@@ -21,15 +48,44 @@ public class CrowdModel {
     public State state;
     public int leaderIndex;
     public int leaderIndexTime;
-    private PooledList<CrowdUnitModel> crowdUnitList;
+    private Array<CrowdUnitModel> crowdUnitList;
     public Vector2 targetPos;
     private float previousDistanceFromTarget;
     public WorldModel worldModel;
 
-    public CrowdModel(float x, float y, float width, float height, WorldModel worldModel) {
-        crowdUnitList = new PooledList<>();
-        for (int i = 0; i < new Random().nextInt(MAX_PEOPLE_IN_CROWD) + 2; i++) {
-            CrowdUnitModel crowdUnit = new CrowdUnitModel(x + new Random().nextFloat(), y + new Random().nextFloat(), width, height, textureList[new Random().nextInt(textureList.length)], worldModel);
+    /** Ring buffer of the feet positions of the leader, taken each time it enters a new lattice cell */
+    private float[] trailX;
+    private float[] trailY;
+    private int trailHead;
+    private int trailSize;
+    private int trailCell;
+
+    private Array<HumanoidModel> neighbours;
+    private Vector2 position;
+    private Vector2 separation;
+    private Vector2 alignment;
+    private Vector2 cohesion;
+    private Vector2 offset;
+
+    /**
+     * Creates a crowd around (x, y).
+     *
+     * @param size Number of NPCs in the crowd, or 0 or less for a small random number of them
+     */
+    public CrowdModel(float x, float y, float width, float height, int size, WorldModel worldModel) {
+        RandomXS128 random = worldModel.getContext().getRandom();
+        if (size <= 0) {
+            size = MIN_RANDOM_CROWD + random.nextInt(MAX_RANDOM_CROWD - MIN_RANDOM_CROWD + 1);
+        }
+        size = Math.min(size, MAX_PEOPLE_IN_CROWD);
+        crowdUnitList = new Array<>(size);
+        // Big crowds start out on a grid, so the physics engine does not have to pry them apart
+        int side = (int) Math.ceil(Math.sqrt(size));
+        float spread = (side - 1) * width / 2;
+        for (int i = 0; i < size; i++) {
+            float ux = x - spread + (i % side) * width + random.nextFloat() * width;
+            float uy = y - spread + (i / side) * width + random.nextFloat() * width;
+            CrowdUnitModel crowdUnit = new CrowdUnitModel(ux, uy, width, height, textureList[random.nextInt(textureList.length)], worldModel);
             crowdUnit.setDrawScale(worldModel.getScale());
             crowdUnit.setActualScale(worldModel.getActualScale());
             crowdUnit.setFixedRotation(true);
@@ -40,18 +96,28 @@ public class CrowdModel {
         this.worldModel = worldModel;
         leaderIndex = 0;
         leaderIndexTime = CHANGE_LEADER_TIME;
+
+        trailX = new float[TRAIL_LENGTH];
+        trailY = new float[TRAIL_LENGTH];
+        trailCell = -1;
+        neighbours = new Array<>(false, 16);
+        position = new Vector2();
+        separation = new Vector2();
+        alignment = new Vector2();
+        cohesion = new Vector2();
+        offset = new Vector2();
     }
 
-    public PooledList<CrowdUnitModel> getCrowdUnitList() {
+    public Array<CrowdUnitModel> getCrowdUnitList() {
         return crowdUnitList;
     }
 
     public void update(float dt) {
         switch (state) {
             case IDLE:
-                if (new Random().nextInt(SPAWN_TO_ROAM_RATE) == 0) {
-                    targetPos.x = new Random().nextInt(ROAM_RADIUS * 2) - ROAM_RADIUS + crowdUnitList.get(0).getHomePosition().x;
-                    targetPos.y = new Random().nextInt(ROAM_RADIUS * 2) - ROAM_RADIUS + crowdUnitList.get(0).getHomePosition().y;
+                if (worldModel.getContext().getRandom().nextInt(SPAWN_TO_ROAM_RATE) == 0) {
+                    targetPos.x = worldModel.getContext().getRandom().nextInt(ROAM_RADIUS * 2) - ROAM_RADIUS + crowdUnitList.get(0).getHomePosition().x;
+                    targetPos.y = worldModel.getContext().getRandom().nextInt(ROAM_RADIUS * 2) - ROAM_RADIUS + crowdUnitList.get(0).getHomePosition().y;
 
                     // bounding to screen lmfao
                     targetPos.x = Math.min(worldModel.getWidth(), targetPos.x);
@@ -59,49 +125,36 @@ public class CrowdModel {
                     targetPos.x = Math.max(0, targetPos.x);
                     targetPos.y = Math.max(0, targetPos.y);
 
-                    for (CrowdUnitModel crowdUnit: getCrowdUnitList()) {
-                        crowdUnit.move(targetPos, crowdUnit.getDimension(), worldModel.getAILattice());
-                    }
+                    CrowdUnitModel leader = crowdUnitList.get(leaderIndex);
+                    leader.move(targetPos, leader.getDimension(), worldModel.getAILattice());
+                    clearTrail();
                     state = State.ROAM;
                 }
                 break;
             case ROAM:
-//                for (CrowdUnitModel crowdUnit: getCrowdUnitList()) {
-//                    crowdUnit.move(targetPos, crowdUnit.getDimension(), worldModel.getAILattice());
-//                }
-//                float distanceFromTarget = getCrowdUnitList().get(0).getPosition().dst(targetPos); // TODO does this actualy work
-//                if (distanceFromTarget == previousDistanceFromTarget) {
-//                    previousDistanceFromTarget = 0f;
-//                    state = State.IDLE;
-//                    return;
-//                }
-//                previousDistanceFromTarget = distanceFromTarget;
-//                break;
+                updateChangeLeader();
+                for (CrowdUnitModel crowdUnit : crowdUnitList) {
+                    crowdUnit.setWalkTexture(dt);
+                    crowdUnit.update(dt);
+                }
 
                 // leader ai
+                CrowdUnitModel leader = crowdUnitList.get(leaderIndex);
+                leader.move(targetPos, leader.getDimension(), worldModel.getAILattice());
+                float distanceFromTarget = leader.getPosition().dst(targetPos);
+                if (distanceFromTarget == previousDistanceFromTarget) {
+                    previousDistanceFromTarget = 0f;
+                    state = State.IDLE;
+                    leaderIndexTime = CHANGE_LEADER_TIME;
+                    leader.setStaticTexture();
+                    return;
+                }
+                previousDistanceFromTarget = distanceFromTarget;
+                recordTrail(leader);
 
-                updateChangeLeader();
-                float distanceFromTarget;
-                for (int i = 0; i < getCrowdUnitList().size(); i++) {
-                    getCrowdUnitList().get(i).setWalkTexture(dt);
-                    getCrowdUnitList().get(i).update(dt);
-                    if (i == leaderIndex) { // leader
-                        getCrowdUnitList().get(leaderIndex).move(targetPos, getCrowdUnitList().get(leaderIndex).getDimension(), worldModel.getAILattice());
-                        distanceFromTarget = getCrowdUnitList().get(leaderIndex).getPosition().dst(targetPos);
-                        if (distanceFromTarget == previousDistanceFromTarget) {
-                            previousDistanceFromTarget = 0f;
-                            state = State.IDLE;
-                            leaderIndexTime = CHANGE_LEADER_TIME;
-                            getCrowdUnitList().get(leaderIndex).setStaticTexture();
-                            return;
-                        }
-                        previousDistanceFromTarget = distanceFromTarget;
-                    } else {
-                        Vector2 leaderPos = getCrowdUnitList().get(leaderIndex).getPosition();
-                        distanceFromTarget = getCrowdUnitList().get(i).getPosition().dst(leaderPos);
-                        if (distanceFromTarget > 0.6f) { // TODO
-                            getCrowdUnitList().get(i).move(leaderPos, getCrowdUnitList().get(i).getDimension(), worldModel.getAILattice());
-                        }
+                for (int i = 0; i < crowdUnitList.size; i++) {
+                    if (i != leaderIndex) {
+                        flock(crowdUnitList.get(i), leader);
                     }
                 }
                 break;
@@ -112,7 +165,110 @@ public class CrowdModel {
         leaderIndexTime--;
         if (leaderIndexTime == 0) {
             leaderIndexTime = CHANGE_LEADER_TIME;
-            leaderIndex = new Random().nextInt(getCrowdUnitList().size());
+            leaderIndex = worldModel.getContext().getRandom().nextInt(crowdUnitList.size);
+            clearTrail();
+        }
+    }
+
+    private void clearTrail() {
+        trailHead = 0;
+        trailSize = 0;
+        trailCell = -1;
+    }
+
+    /** Adds the leader's position to the trail when it has moved into a new cell */
+    private void recordTrail(CrowdUnitModel leader) {
+        Vector2 feet = leader.getFeetPosition();
+        int c = (int) feet.x + (int) feet.y * (int) worldModel.getWidth();
+        if (c == trailCell) {
+            return;
+        }
+        trailCell = c;
+        trailX[trailHead] = feet.x;
+        trailY[trailHead] = feet.y;
+        trailHead = (trailHead + 1) % TRAIL_LENGTH;
+        trailSize = Math.min(trailSize + 1, TRAIL_LENGTH);
+    }
+
+    /** Steers a follower by separation, alignment and cohesion with the crowd around it */
+    private void flock(CrowdUnitModel unit, CrowdUnitModel leader) {
+        position.set(unit.getFeetPosition());
+        separation.setZero();
+        alignment.setZero();
+        int aligned = 0;
+
+        SpatialHash<HumanoidModel> hash = worldModel.getNeighbours();
+        neighbours.clear();
+        if (hash != null) {
+            hash.query(position.x, position.y, NEIGHBOUR_RADIUS, neighbours);
+        }
+        for (int i = 0; i < neighbours.size; i++) {
+            HumanoidModel other = neighbours.get(i);
+            if (other == unit) {
+                continue;
+            }
+            offset.set(position).sub(other.getFeetPosition());
+            float dist2 = offset.len2();
+            if (dist2 > 0 && dist2 < SEPARATION_RADIUS * SEPARATION_RADIUS) {
+                // Push harder the closer the other one is
+                separation.mulAdd(offset, 1 / dist2);
+            }
+            if (other instanceof CrowdUnitModel) {
+                alignment.add(other.getLinearVelocity());
+                aligned++;
+            }
+        }
+        if (aligned > 0) {
+            alignment.scl(1f / aligned).limit(1);
+        }
+        separation.limit(1);
+
+        if (!followTrail(unit, leader)) {
+            // Nothing on the trail is in a straight line, so this one has to find its own way
+            unit.move(leader.getPosition(), unit.getDimension(), worldModel.getAILattice());
+            return;
+        }
+
+        cohesion.scl(COHESION_WEIGHT).mulAdd(separation, SEPARATION_WEIGHT).mulAdd(alignment, ALIGNMENT_WEIGHT);
+        if (cohesion.len2() < MIN_STEER * MIN_STEER) {
+            unit.stop();
+        } else {
+            unit.steer(cohesion);
+        }
+    }
+
+    /**
+     * Sets cohesion to the direction toward the newest spot on the leader's trail, the leader
+     * itself included, that unit can walk to in a straight line. It is zero if unit is already there.
+     *
+     * @return false if no such spot is known
+     */
+    private boolean followTrail(CrowdUnitModel unit, CrowdUnitModel leader) {
+        AILattice lattice = worldModel.getAILattice();
+        float halfWidth = unit.getWidth() / 2;
+        Vector2 feet = leader.getFeetPosition();
+        boolean found = lattice == null
+                || lattice.isStraightWalkable(position.x, position.y, feet.x, feet.y, halfWidth);
+        if (found) {
+            cohesion.set(feet);
+        }
+        for (int i = 1; i <= trailSize && !found; i++) {
+            int t = (trailHead - i + TRAIL_LENGTH) % TRAIL_LENGTH;
+            if (lattice.isStraightWalkable(position.x, position.y, trailX[t], trailY[t], halfWidth)) {
+                cohesion.set(trailX[t], trailY[t]);
+                found = true;
+            }
+        }
+        if (!found) {
+            return false;
+        }
+
+        cohesion.sub(position);
+        if (cohesion.len2() < FOLLOW_DIST * FOLLOW_DIST) {
+            cohesion.setZero();
+        } else {
+            cohesion.nor();
         }
+        return true;
     }
 }
@@ -5,6 +5,9 @@ import edu.cornell.gdiac.nightbite.*;
 import edu.cornell.gdiac.util.FilmStrip;
 
 public class CrowdUnitModel extends HumanoidModel{
+    /** AI class of every crowd unit */
+    public static final int AI_CLASS = 2;
+
 
     private static final float WALK_THRUST = 3f;
 
@@ -23,7 +26,7 @@ public class CrowdUnitModel extends HumanoidModel{
         aiController = new AIController(worldModel, this);
         dir = new Vector2(0, 0);
 
-        aiClass = 2;
+        aiClass = AI_CLASS;
     }
 
     public void move(Vector2 targetPos, Vector2 targetDims, AILattice aiLattice) {
@@ -42,8 +45,20 @@ public class CrowdUnitModel extends HumanoidModel{
 
         aiController.updateAI(aiLattice, getFeetPosition(), aiClass);
         dir = aiController.vectorToNode(getFeetPosition(), aiLattice, aiClass).cpy().nor();
+        aiController.avoid(dir);
+        body.applyLinearImpulse(dir.scl(WALK_THRUST), getPosition(), true);
+
+    }
+
+    /** Walks in direction, which need not be normalized, without planning a path */
+    public void steer(Vector2 direction) {
+        dir.set(direction).nor();
         body.applyLinearImpulse(dir.scl(WALK_THRUST), getPosition(), true);
+    }
 
+    /** Stands still, but keeps facing the same way */
+    public void stop() {
+        dir.setZero();
     }
 
     @Override
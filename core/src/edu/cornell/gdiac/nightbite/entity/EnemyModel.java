@@ -19,7 +19,9 @@ public abstract class EnemyModel extends HumanoidModel {
 
         path = new PooledList<>();
         aiController = new AIController(worldModel, this);
+        aiController.setSearch(AILattice.Heuristic.MANHATTAN, false);
         this.worldModel = worldModel;
+        thinkCountdown = worldModel.getContext().random(1, IDLE_THINK_INTERVAL);
         walkCooldown = WALK_COOLDOWN;
         setRespawnCooldown(6 * 60);
 
@@ -40,15 +42,34 @@ public abstract class EnemyModel extends HumanoidModel {
     public WorldModel worldModel;
 
     protected static final int WALK_COOLDOWN = 10;
-    private static float WALK_THRUST = 7f;
+    private static final float WALK_THRUST = 7f;
     protected int walkCooldown;
 
-    protected static float STOP_DIST = 2;
+    protected static final float STOP_DIST = 2;
+    /** Impulse of each step. Set per enemy, so one kind of enemy does not change the rest */
+    private float walkThrust = WALK_THRUST;
+    /** Distance from home that counts as having arrived */
+    protected float stopDist = STOP_DIST;
+
+    /** Frames between state updates for an idle enemy with no player within LOD_RADIUS */
+    protected static final int IDLE_THINK_INTERVAL = 10;
+    /** Frames between state updates for an enemy returning home */
+    protected static final int RETURN_THINK_INTERVAL = 3;
+    /** Idle enemies with a player closer than this update their state every frame */
+    protected static final float LOD_RADIUS = 10;
+
+    private int idleThinkInterval = IDLE_THINK_INTERVAL;
+    private int returnThinkInterval = RETURN_THINK_INTERVAL;
+    private float lodRadius = LOD_RADIUS;
+    /** Frames until the enemy next updates its state */
+    private int thinkCountdown;
+    /** Whether the current call to move comes from chase */
+    private boolean chasing;
 
     public void setStopDist(float stopDist) {
-        STOP_DIST = stopDist;
+        this.stopDist = stopDist;
     }
-    public void setWalkThrust(float thrust) { WALK_THRUST = thrust; }
+    public void setWalkThrust(float thrust) { walkThrust = thrust; }
 
     // Only relevant for thief enemy
     public boolean isDoneAttacking = true;
@@ -78,9 +99,11 @@ public abstract class EnemyModel extends HumanoidModel {
     public Vector2 update(PlayerModel p) {
         Vector2 homePos = getHomePosition();
         Vector2 dir = new Vector2(0, 0);
+        aiController.setPriority(state == State.ATTACK ? ReplanScheduler.Priority.CHASE : ReplanScheduler.Priority.RETURN);
+        boolean think = isThinkFrame();
         switch (state) {
             case IDLE:
-                if (aiController.canDetectPlayer()) { // Player is within detection radius - attack
+                if (think && aiController.canDetectPlayer()) { // Player is within detection radius - attack
                     state = State.ATTACK;
                     aiController.forceReplan();
                 }
@@ -94,6 +117,9 @@ public abstract class EnemyModel extends HumanoidModel {
                 break;
             case RETURN: // Go to origin
                 dir = move(homePos, p.getDimension(), worldModel.getAILattice());
+                if (!think) {
+                    break;
+                }
                 float distanceFromHome = getPosition().dst(homePos);
                 if (distanceFromHome == previousDistanceFromHome) { // Enemy is back at origin - idle
                     previousDistanceFromHome = 0f; // Reset
@@ -113,11 +139,41 @@ public abstract class EnemyModel extends HumanoidModel {
         return dir;
     }
 
+    /**
+     * Whether the enemy senses the players and changes state this frame. Attacking enemies
+     * think every frame, returning ones every few frames, and idle ones only rarely unless a
+     * player is near. Movement is not throttled, only the decisions.
+     */
+    private boolean isThinkFrame() {
+        int interval;
+        switch (state) {
+            case ATTACK:
+                interval = 1;
+                break;
+            case RETURN:
+                interval = returnThinkInterval;
+                break;
+            default:
+                Vector2 pos = getPosition();
+                interval = worldModel.getPerception().anyWithin(pos.x, pos.y, lodRadius) ? 1 : idleThinkInterval;
+                break;
+        }
+        // The countdown starts at a random phase, so enemies of one type do not all think on the same frame
+        thinkCountdown = Math.min(thinkCountdown - 1, interval);
+        if (thinkCountdown > 0) {
+            return false;
+        }
+        thinkCountdown = interval;
+        return true;
+    }
+
     public Vector2 move(Vector2 targetPos, Vector2 targetDims, AILattice aiLattice) {
 //        body.setLinearVelocity(Vector2.Zero);
+        // Only switches when a chase starts or ends, since the controller replans on the way out
+        aiController.setFollowFlow(chasing);
 
-        if (getPosition().sub(targetPos).len() < STOP_DIST &&
-                aiController.canTarget(getPosition(), targetPos, STOP_DIST)) {
+        if (getPosition().sub(targetPos).len() < stopDist &&
+                aiController.canTarget(getPosition(), targetPos, stopDist)) {
             return Vector2.Zero;
         }
 
@@ -140,8 +196,20 @@ public abstract class EnemyModel extends HumanoidModel {
 
         aiController.updateAI(aiLattice, getFeetPosition(), getAiClass());
         Vector2 dir = aiController.vectorToNode(getFeetPosition(), aiLattice, getAiClass(),
-                getPosition().sub(targetPos).len() < STOP_DIST).cpy().nor();
-        body.applyLinearImpulse(dir.scl(WALK_THRUST), getPosition(), true);
+                getPosition().sub(targetPos).len() < stopDist).cpy().nor();
+        aiController.avoid(dir);
+        body.applyLinearImpulse(dir.scl(walkThrust), getPosition(), true);
+        return dir;
+    }
+
+    /**
+     * Moves toward a player. Every enemy chasing the same player shares one flow field
+     * in the lattice, rather than each planning its own path.
+     */
+    public Vector2 chase(PlayerModel p, AILattice aiLattice) {
+        chasing = true;
+        Vector2 dir = move(p.getPosition(), p.getDimension(), aiLattice);
+        chasing = false;
         return dir;
     }
 
@@ -162,6 +230,7 @@ public abstract class EnemyModel extends HumanoidModel {
 
     public void resetState() {
         state = State.IDLE;
+        thinkCountdown = 1;
     }
 
     public void playerTakesItem() {
@@ -173,4 +242,15 @@ public abstract class EnemyModel extends HumanoidModel {
         }
     }
     public void setDetectionRadius(float radius) { aiController.setDetectionRadius(radius); }
+
+    /**
+     * Sets how many frames pass between state updates while idle with no player within radius,
+     * and while returning home. Attacking enemies always update every frame. The radius should be
+     * larger than the detection radius, or players may wait a few frames to be noticed.
+     */
+    public void setThinkRate(int idleInterval, int returnInterval, float radius) {
+        idleThinkInterval = Math.max(1, idleInterval);
+        returnThinkInterval = Math.max(1, returnInterval);
+        lodRadius = radius;
+    }
 }
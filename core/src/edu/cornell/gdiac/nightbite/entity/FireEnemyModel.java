@@ -1,13 +1,11 @@
 package edu.cornell.gdiac.nightbite.entity;
 
 import com.badlogic.gdx.graphics.Color;
-import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Vector2;
 import edu.cornell.gdiac.nightbite.AILattice;
 import edu.cornell.gdiac.nightbite.Assets;
 import edu.cornell.gdiac.nightbite.GameCanvas;
 import edu.cornell.gdiac.nightbite.WorldModel;
-import edu.cornell.gdiac.util.LightSource;
 
 public class FireEnemyModel extends EnemyModel {
     private static final int MAX_THROW_COOLDOWN = 2*60;
@@ -21,6 +19,11 @@ public class FireEnemyModel extends EnemyModel {
     private static final float MAX_DEVIATION = 20f;
     private static final float MIN_DEVIATION = -20f;
     private static final float TOO_CLOSE_DIST = 1.5f;
+    /**
+     * Most firecrackers one enemy can have out at once. A firecracker lasts about a second and
+     * a half, and throws are at least a second apart.
+     */
+    public static final int MAX_LIVE_FIRECRACKERS = 2;
     private int throwCooldown;
 
     private final Vector2 source, target, targetPred, cache;
@@ -42,24 +45,27 @@ public class FireEnemyModel extends EnemyModel {
         setPosition(x, y + 0.1f); // this is moved up so they dont spawn and die
         setHomePosition(new Vector2(x + 0.5f, y + 0.6f));
 
+        // Throws from range, so it wakes up from further away and keeps a closer eye on the way home
+        setThinkRate(6, 2, 12);
         aiClass = 1;
     }
 
     public Vector2 attack(PlayerModel p, AILattice aiLattice) {
-        Vector2 dir = move(p.getPosition(), p.getDimension(), aiLattice);
+        Vector2 dir = chase(p, aiLattice);
         Vector2 imp = throwFirecracker(p.getPosition(), p.getLinearVelocity(), aiLattice);
         if (imp != null) {
             FirecrackerModel f = worldModel.addFirecracker(getPosition().x, getPosition().y);
-            LightSource light = worldModel.createPointLight(new float[]{0.15f, 0f, 0f, 1.0f}, 1.5f);
-            light.attachToBody(f.getBody());
-            f.setLight(light);
-            f.throwItem(imp.scl(imp.len()).scl(THROW_FORCE).scl(MathUtils.random(MIN_DIST_DEV, MAX_DIST_DEV)));
+            f.throwItem(imp.scl(imp.len()).scl(THROW_FORCE).scl(worldModel.getContext().random(MIN_DIST_DEV, MAX_DIST_DEV)));
             walkCooldown = WALK_COOLDOWN;
         }
         return dir;
     }
 
     // TODO: Shouldn't only do shot prediction -- randomized or controlled?
+    /**
+     * Returns the direction to throw a firecracker in, or null if this enemy should not throw.
+     * The vector is reused by the next call.
+     */
     public Vector2 throwFirecracker(Vector2 targetPos, Vector2 targetVelocity, AILattice aiLattice) {
         source.set(getPosition());
         target.set(targetPos);
@@ -71,7 +77,6 @@ public class FireEnemyModel extends EnemyModel {
         cache.add(targetPos);
         // cache.rotate(MathUtils.random(MIN_DEVIATION, MAX_DEVIATION));
         targetPred.set(cache);
-        // ;System.out.println(aiLattice.isReachable(cache, targetPos));
 
         if (throwCooldown > 0) {
             throwCooldown --;
@@ -80,15 +85,15 @@ public class FireEnemyModel extends EnemyModel {
         }
 
 
-        if (aiController.canTarget(getPosition(), cache, THROW_DIST)) { // && aiLattice.isReachable(cache, targetPos)) {// && !targetVelocity.epsilonEquals(Vector2.Zero)) {
+        if (aiController.canTarget(getPosition(), cache, THROW_DIST) && aiLattice.isReachable(cache, targetPos)) {// && !targetVelocity.epsilonEquals(Vector2.Zero)) {
             resetThrowCooldown();
-            cache.sub(getPosition()).rotate(MathUtils.random(MIN_DEVIATION, MAX_DEVIATION));
+            cache.sub(getPosition()).rotate(worldModel.getContext().random(MIN_DEVIATION, MAX_DEVIATION));
             targetPred.set(getPosition()).add(cache);
             if (cache.len() > TOO_CLOSE_DIST) {
                 if (cache.len() > THROW_DIST) {
                     cache.nor().scl(THROW_DIST);
                 }
-                return cache.cpy();
+                return cache;
             }
         }
 
@@ -111,8 +116,8 @@ public class FireEnemyModel extends EnemyModel {
         //
         // }
 
-        if (aiController.canSee(getPosition(), targetPos)
-                && getPosition().sub(targetPos).len() < THROW_DIST) {
+        if (getPosition().sub(targetPos).len() < THROW_DIST
+                && aiController.canSee(getPosition(), targetPos)) {
             resetThrowCooldown();
             cache.set(targetPos).sub(getPosition());
             if (cache.len() < TOO_CLOSE_DIST) {
@@ -134,7 +139,7 @@ public class FireEnemyModel extends EnemyModel {
     }
 
     private void resetThrowCooldown() {
-        throwCooldown = MathUtils.random(MIN_THROW_COOLDOWN, MAX_THROW_COOLDOWN);
+        throwCooldown = worldModel.getContext().random(MIN_THROW_COOLDOWN, MAX_THROW_COOLDOWN);
     }
 
     @Override
@@ -142,8 +147,8 @@ public class FireEnemyModel extends EnemyModel {
         super.draw(canvas);
         if (state == State.ATTACK && (throwCooldown / 15) % 2 == 0) {
             canvas.draw(EXCLAMATION,
-                    (getPosition().x - 0.5f) * worldModel.getScale().x,
-                    (getPosition().y + 0.5f) * worldModel.getScale().y);
+                    (getDrawX() - 0.5f) * worldModel.getScale().x,
+                    (getDrawY() + 0.5f) * worldModel.getScale().y);
         }
     }
 
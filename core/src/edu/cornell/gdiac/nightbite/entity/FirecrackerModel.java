@@ -3,16 +3,24 @@ package edu.cornell.gdiac.nightbite.entity;
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.*;
+import com.badlogic.gdx.utils.Pool;
 import edu.cornell.gdiac.nightbite.Assets;
 import edu.cornell.gdiac.nightbite.GameCanvas;
+import edu.cornell.gdiac.nightbite.WorldModel;
 import edu.cornell.gdiac.nightbite.obstacle.BoxObstacle;
 import edu.cornell.gdiac.util.FilmStrip;
 import edu.cornell.gdiac.util.LightSource;
-import edu.cornell.gdiac.util.SoundController;
 
 import java.util.ArrayList;
 
-public class FirecrackerModel extends BoxObstacle {
+/**
+ * A firecracker thrown by a FireEnemy.
+ * <p>
+ * Firecrackers are pooled by the world, so that throwing one creates nothing. A pooled
+ * firecracker keeps its body and light while it waits for the next throw, but both are made
+ * inactive, so they take no part in physics or lighting.
+ */
+public class FirecrackerModel extends BoxObstacle implements Pool.Poolable {
 
     /* Expected timestep age of firecracker before becoming lit */
     private static final int AGE = 1;
@@ -63,12 +71,18 @@ public class FirecrackerModel extends BoxObstacle {
     private float frame;
 
     /* Reference to the existing world but also like jesus this is bad practice */
-    private World world;
+    private WorldModel worldModel;
 
     /** The light that appears when a firecracker is detonating */
     private LightSource light;
     /** Transparency of the explosion light */
     private float lightAlpha = 0.75f;
+    /** Color of the light while the firecracker is flying and lit */
+    private static final Color LIGHT_COLOR = new Color(0.15f, 0f, 0f, 1.0f);
+    /** Radius of the light while the firecracker is flying and lit */
+    private static final float LIGHT_DISTANCE = 1.5f;
+    /** Radius of the light while the firecracker is detonating */
+    private static final float DETONATING_LIGHT_DISTANCE = 3.0f;
 
     /** Min velocity for firecracker to be considered 'not flying' */
     private final float stop_velocity = 1f;
@@ -96,6 +110,14 @@ public class FirecrackerModel extends BoxObstacle {
      */
     public boolean isDetonating() { return this.detonating; }
 
+    /**
+     * Get whether this firecracker is lit, or still blasting bodies away
+     */
+    public boolean isDangerous() {
+        return !fadeOut && !isRemoved()
+                && (lit || (detonating && detonating_age > DETONATING_AGE - DETONATING_TIME));
+    }
+
     /**
      * Set the texture of this firecracker
      */
@@ -107,13 +129,12 @@ public class FirecrackerModel extends BoxObstacle {
     /**
      * Construct a new firecracker
      */
-    public FirecrackerModel(World world, float x, float y, float width, float height) {
+    public FirecrackerModel(WorldModel worldModel, float x, float y, float width, float height) {
         super(x, y, width, height);
 
-        this.texture = Assets.getFilmStrip("item/firecracker_64.png");
         litTexture = Assets.getFilmStrip("item/firecracker_fuse_64_fs.png");
         detTexture = Assets.getFilmStrip("item/firecracker_detonating_64_fs.png");
-        setTexture(this.texture);
+        setTexture(Assets.getFilmStrip("item/firecracker_64.png"));
 
         setDensity(MOVABLE_OBJECT_DENSITY);
         setFriction(MOVABLE_OBJECT_FRICTION);
@@ -138,7 +159,55 @@ public class FirecrackerModel extends BoxObstacle {
         categoryBits = 0x0020;
         maskBits = 0x0008;
 
-        this.world = world;
+        this.worldModel = worldModel;
+    }
+
+    /**
+     * Takes this firecracker out of the pool, fresh and unlit, at the given position.
+     * Its body and light become active again.
+     *
+     * @param x The x position of the firecracker, in world coordinates
+     * @param y The y position of the firecracker, in world coordinates
+     */
+    public void launch(float x, float y) {
+        setPosition(x, y);
+        clearPosition();
+        setActive(true);
+        if (light != null) {
+            light.setColor(LIGHT_COLOR);
+            light.setDistance(LIGHT_DISTANCE);
+            light.setActive(true);
+        }
+    }
+
+    /**
+     * Returns this firecracker to the state it was built in, with its body and light parked.
+     * Called by the pool when the firecracker is freed.
+     */
+    @Override
+    public void reset() {
+        if (body != null) {
+            body.setLinearVelocity(0, 0);
+        }
+        setActive(false);
+        deactivateLight();
+        markRemoved(false);
+
+        contactHoles.clear();
+        fadeOut = false;
+        fadeOutFrame = 0;
+        tint.set(Color.WHITE);
+        lightAlpha = 0.75f;
+
+        age = AGE;
+        lit_age = LIT_AGE;
+        detonating_age = DETONATING_AGE;
+        lit = false;
+        detonating = false;
+        frame = 0f;
+        litTexture.setFrame(0);
+        detTexture.setFrame(0);
+        setTexture(defaultTexture);
     }
 
     /**
@@ -184,8 +253,9 @@ public class FirecrackerModel extends BoxObstacle {
                 b.applyLinearImpulse(blastDirection, b.getPosition(), true);
             }
 
-            if (body.getUserData() instanceof EnemyModel) {
-                EnemyModel e = ((EnemyModel) (body.getUserData()));
+            // Enemies steer clear of the danger layer, so only those caught anyway replan, once per blast
+            if (detonating_age == DETONATING_AGE - 1 && b.getUserData() instanceof EnemyModel) {
+                EnemyModel e = ((EnemyModel) (b.getUserData()));
                 e.forceReplan();
             }
         }
@@ -271,7 +341,7 @@ public class FirecrackerModel extends BoxObstacle {
                 frame = 0f;
                 setTexture(litTexture);
                 String firecrackerSoundFile = "audio/firecracker.wav";
-                SoundController.getInstance().play(firecrackerSoundFile, firecrackerSoundFile, false, Assets.VOLUME * 0.4f);
+                worldModel.getContext().getSounds().play(firecrackerSoundFile, firecrackerSoundFile, false, Assets.VOLUME * 0.4f);
             }
         }
 
@@ -306,11 +376,11 @@ public class FirecrackerModel extends BoxObstacle {
                 if (light != null) {
                     light.setColor(0.15f, 0.05f, 0.0f, lightAlpha);
                     decrLightAlpha();
-                    light.setDistance(3.0f);
+                    light.setDistance(DETONATING_LIGHT_DISTANCE);
                 }
                 // only push back during first moment of explosion
                 if (detonating_age > DETONATING_AGE - DETONATING_TIME)
-                    blastSurroundingBodies(world);
+                    blastSurroundingBodies(worldModel.getWorld());
             }
 
         }
@@ -319,7 +389,7 @@ public class FirecrackerModel extends BoxObstacle {
     @Override
     public void draw(GameCanvas canvas) {
         if (texture != null) {
-            canvas.draw(texture,tint,origin.x,origin.y,getX() * drawScale.x, getY() * drawScale.y,
+            canvas.draw(texture,tint,origin.x,origin.y,getDrawX() * drawScale.x, getDrawY() * drawScale.y,
                     getAngle(),actualScale.x,actualScale.y);
         }
     }
@@ -24,7 +24,7 @@ public class HoleModel extends ImmovableModel {
     public void draw(GameCanvas canvas) {
         super.draw(canvas);
         if (holeEdge != null) {
-            holeEdge.draw(GameCanvas.getInstance().getSpriteBatch());
+            holeEdge.draw(canvas.getSpriteBatch());
         }
     }
 }
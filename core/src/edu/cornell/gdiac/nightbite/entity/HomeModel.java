@@ -5,7 +5,6 @@ import edu.cornell.gdiac.nightbite.Assets;
 import edu.cornell.gdiac.nightbite.GameCanvas;
 import edu.cornell.gdiac.nightbite.WorldModel;
 import edu.cornell.gdiac.util.FilmStrip;
-import edu.cornell.gdiac.util.SoundController;
 
 public class HomeModel extends ImmovableModel {
 
@@ -49,7 +48,7 @@ public class HomeModel extends ImmovableModel {
      */
     public void incrementScore(int increase) {
         score = score + increase;
-        SoundController.getInstance().play(FX_DELIVER_FILE, FX_DELIVER_FILE, false, Assets.VOLUME);
+        worldModel.getContext().getSounds().play(FX_DELIVER_FILE, FX_DELIVER_FILE, false, Assets.VOLUME);
 
         // TODO need to safely set the texture
         if (score < 4) ((FilmStrip) texture).setFrame(score);
@@ -285,6 +285,7 @@ public abstract class HumanoidModel extends SimpleObstacle {
         respawnCooldown--;
         if (respawnCooldown == 0) {
             setPosition(homePosition);
+            clearPosition();
             setAlive(true);
             resetTexture();
             draw = true;
@@ -450,7 +451,7 @@ public abstract class HumanoidModel extends SimpleObstacle {
     @Override
     public void draw(GameCanvas canvas) {
         if (texture != null) {
-            canvas.draw(texture,tint,origin.x,origin.y,getX() * drawScale.x, getY() * drawScale.y,
+            canvas.draw(texture,tint,origin.x,origin.y,getDrawX() * drawScale.x, getDrawY() * drawScale.y,
                     getAngle(),actualScale.x,actualScale.y);
 //            System.out.println(texture.);
         }
@@ -6,6 +6,7 @@ import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.Filter;
 import com.badlogic.gdx.physics.box2d.World;
 import edu.cornell.gdiac.nightbite.GameCanvas;
+import edu.cornell.gdiac.nightbite.WorldModel;
 import edu.cornell.gdiac.nightbite.obstacle.BoxObstacle;
 import edu.cornell.gdiac.util.LightSource;
 
@@ -51,6 +52,9 @@ public class ItemModel extends BoxObstacle {
 
     private int id;
 
+    /** The world this item is in */
+    private WorldModel worldModel;
+
     // TODO temp
     private static final float MOVABLE_OBJECT_DENSITY = 1.0f;
     private static final float MOVABLE_OBJECT_FRICTION = 0.1f;
@@ -61,13 +65,13 @@ public class ItemModel extends BoxObstacle {
     public Vector2 generateNewItemPosition() {
         int ind;
         do { // Make sure new coordinate is different from previous one
-            ind = (int)(Math.random() * itemInitPositions.size());
+            ind = worldModel.getContext().getRandom().nextInt(itemInitPositions.size());
         } while (ind == mostRecentItemPositionInd);
         mostRecentItemPositionInd = ind;
         return itemInitPositions.get(mostRecentItemPositionInd);
     }
 
-    public ItemModel(float x, float y, int itemId, TextureRegion itemTexture) {
+    public ItemModel(float x, float y, int itemId, TextureRegion itemTexture, WorldModel worldModel) {
         super(x, y, 1, 1);
         setTexture(itemTexture);
         tint = new Color(Color.WHITE);
@@ -83,6 +87,7 @@ public class ItemModel extends BoxObstacle {
         itemInitPositions = new ArrayList<Vector2>();
         addItemInitPosition(x, y);
         id = itemId;
+        this.worldModel = worldModel;
 
         maskBits = 0x0002 | 0x0008;
         categoryBits = 0x0001;
@@ -134,6 +139,7 @@ public class ItemModel extends BoxObstacle {
         draw = true;
         holdingPlayer = null;
         setPosition(position);
+        clearPosition();
     }
 
     /** item held */
@@ -189,7 +195,7 @@ public class ItemModel extends BoxObstacle {
     @Override
     public void draw(GameCanvas canvas) {
         if (texture != null) {
-            canvas.draw(texture,tint,origin.x,origin.y,getX() * drawScale.x, getY() * drawScale.y,
+            canvas.draw(texture,tint,origin.x,origin.y,getDrawX() * drawScale.x, getDrawY() * drawScale.y,
                     getAngle(),actualScale.x,actualScale.y);
         }
     }
@@ -3,6 +3,7 @@ package edu.cornell.gdiac.nightbite.entity;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.graphics.g2d.Sprite;
 import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.Filter;
 import com.badlogic.gdx.utils.JsonReader;
@@ -13,26 +14,23 @@ import edu.cornell.gdiac.nightbite.obstacle.Obstacle;
 import edu.cornell.gdiac.util.LightSource;
 import org.w3c.dom.Text;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class LevelController {
-    private static LevelController instance;
-    private static JsonReader jsonReader = new JsonReader();
+    private JsonReader jsonReader = new JsonReader();
     /** Iterated over to maintain unique item numbers */
     private int itemNum = 0;
     /** Reference to the world that is being populated */
     private WorldModel world;
+    /** One-tile walls in the level by name, whose bodies are merged once every tile is read */
+    private Map<String, WallMesh> walls;
 
     private String itemFile;
     private String homeStallFile;
     private String itemStallFile;
     private String crateFile;
 
-    public static LevelController getInstance() {
-        if (instance == null) {
-            instance = new LevelController();
-        }
-        return instance;
-    }
-
     /**
      * Populate this world as specified in the level file
      *
@@ -42,6 +40,7 @@ public class LevelController {
      */
     public int populate(WorldModel world, String level_file, String levelItemName) {
         this.world = world;
+        walls = new LinkedHashMap<>();
         createBounds();
         JsonValue levelFormat = jsonReader.parse(Gdx.files.internal(level_file));
         JsonValue cellArray = levelFormat.get("assets");
@@ -133,6 +132,11 @@ public class LevelController {
             y++;
             x = 0;
         }
+        // Only tiles with the same name are merged, so that every body keeps the name of its tiles
+        for (Map.Entry<String, WallMesh> entry : walls.entrySet()) {
+            createColliders(entry.getValue(), entry.getKey(), null);
+        }
+        walls = null;
 
         return levelFormat.has("timeLimit") ? levelFormat.getInt("timeLimit") : 120;
     }
@@ -167,39 +171,39 @@ public class LevelController {
     }
 
     private void createBounds() {
-        float width = world.getBounds().width;
-        float height = world.getBounds().height;
-        WallModel wall;
-        // TODO: Use four walls rather than n X m
+        int width = (int) world.getBounds().width;
+        int height = (int) world.getBounds().height;
+        WallMesh bounds = new WallMesh(-1, -1, width + 2, height + 2);
         for (int i = -1; i < width; i++) {
-            wall = new WallModel(i, -1, 0, false);
-            wall.setDrawScale(world.getScale());
-            wall.setActualScale(world.getActualScale());
-            wall.setName("bound");
-            wall.setFilterData(makeBoundsFilter());
-            world.addStaticObject(wall);
-
-            wall = new WallModel(i, height, 0, false);
-            wall.setDrawScale(world.getScale());
-            wall.setActualScale(world.getActualScale());
-            wall.setName("bound");
-            wall.setFilterData(makeBoundsFilter());
-            world.addStaticObject(wall);
+            bounds.add(i, -1);
+            bounds.add(i, height);
         }
         for (int i = -1; i < height; i++) {
-            wall = new WallModel(-1, i, 0, false);
-            wall.setDrawScale(world.getScale());
-            wall.setActualScale(world.getActualScale());
-            wall.setName("bound");
-            wall.setFilterData(makeBoundsFilter());
-            world.addStaticObject(wall);
+            bounds.add(-1, i);
+            bounds.add(width, i);
+        }
+        createColliders(bounds, "bound", makeBoundsFilter());
+    }
 
-            wall = new WallModel(width, i, 0, false);
+    /**
+     * Gives each rectangle of a mesh one static body, without a texture.
+     *
+     * @param mesh   Solid tiles to cover
+     * @param name   Name of every body
+     * @param filter Collision filter of every body, or null to keep the default for walls
+     */
+    private void createColliders(WallMesh mesh, String name, Filter filter) {
+        for (Rectangle r : mesh.build()) {
+            WallModel wall = new WallModel(r.x + (r.width - 1) / 2, r.y + (r.height - 1) / 2, 0, false);
+            wall.setWidth(r.width);
+            wall.setHeight(r.height);
             wall.setDrawScale(world.getScale());
             wall.setActualScale(world.getActualScale());
-            wall.setName("bound");
-            wall.setFilterData(makeBoundsFilter());
-            world.addStaticObject(wall);
+            wall.setName(name);
+            if (filter != null) {
+                wall.setFilterData(filter);
+            }
+            world.addStaticCollider(wall);
         }
     }
 
@@ -216,7 +220,8 @@ public class LevelController {
         if (world.getNumItems()==0) { // Create item on first call
             item = new ItemModel(
                     x, y, itemNum,
-                    Assets.getTextureRegion(itemFile)
+                    Assets.getTextureRegion(itemFile),
+                    world
             );
 
             item.setName("item" + itemNum);
@@ -244,7 +249,7 @@ public class LevelController {
         TextureRegion texture = Assets.getFilmStrip("character/Filmstrip/Player_1/P1_Walk_8.png");
         float pWidth = (texture.getRegionWidth() - 30f) / world.getScale().x;
         float pHeight = texture.getRegionHeight() / world.getScale().y;
-        PlayerModel player = new PlayerModel(x, y, pWidth, pHeight, world.getWorld(), teamName, home);
+        PlayerModel player = new PlayerModel(x, y, pWidth, pHeight, world, teamName, home);
         player.setDrawScale(world.getScale());
         player.setActualScale(world.getActualScale());
         player.setName("player " + teamName);
@@ -264,12 +269,13 @@ public class LevelController {
                 break;
             case "FireEnemy":
                 enemy = new FireEnemyModel(x, y, world);
+                world.reserveFirecrackers(FireEnemyModel.MAX_LIVE_FIRECRACKERS);
                 break;
             case "ThiefEnemy":
                 enemy = new ThiefEnemyModel(x, y, world);
                 break;
             case "Crowd":
-                createCrowd(x, y);
+                createCrowd(x, y, enemyJson.has("crowdSize") ? enemyJson.getInt("crowdSize") : 0);
                 return;
         }
         enemy.setDrawScale(world.getScale());
@@ -285,11 +291,12 @@ public class LevelController {
         }
     }
 
-    private void createCrowd(int x, int y) {
+    /** Creates a crowd of size NPCs at (x, y), or of a random few if size is 0 */
+    private void createCrowd(int x, int y, int size) {
         TextureRegion texture = Assets.getFilmStrip("character/Filmstrip/NPC1_Walk_8.png");
         float pWidth = (texture.getRegionWidth() - 30f) / world.getScale().x;
         float pHeight = texture.getRegionHeight() / world.getScale().y;
-        CrowdModel crowd = new CrowdModel( x, y, pWidth, pHeight, world);
+        CrowdModel crowd = new CrowdModel( x, y, pWidth, pHeight, size, world);
         world.addCrowd(crowd);
     }
 
@@ -322,6 +329,7 @@ public class LevelController {
 //        FilmStrip wallTexture = Assets.getFilmStrip(texture, 128);
 //        wallTexture.setFrame(3);
 
+        boolean merged = false;
         if (big || width > 64) {
             int widthFactor = (width + 1) / 64;
             int heightFactor = height / 64;
@@ -331,12 +339,26 @@ public class LevelController {
             wall.setPosition(pos);
             wall.setWidth(widthFactor);
             wall.setHeight(heightFactor);
+        } else {
+            // One-tile walls are square, so turning them does not change their bodies
+            String name = wallJson.getString("name");
+            WallMesh mesh = walls.get(name);
+            if (mesh == null) {
+                mesh = new WallMesh(0, 0, (int) world.getBounds().width, (int) world.getBounds().height);
+                walls.put(name, mesh);
+            }
+            mesh.add(x, y);
+            merged = true;
         }
 
         if (wallJson.getBoolean("light")) {
             world.createStaticPointLight(new float[]{0.15f, 0.03f, 0f, 0.5f}, 4.0f, x, y);
         }
 
-        world.addStaticObject(wall);
+        if (merged) {
+            world.addStaticTile(wall);
+        } else {
+            world.addStaticObject(wall);
+        }
     }
 }
@@ -5,7 +5,6 @@ import edu.cornell.gdiac.nightbite.AILattice;
 import edu.cornell.gdiac.nightbite.Assets;
 import edu.cornell.gdiac.nightbite.GameCanvas;
 import edu.cornell.gdiac.nightbite.WorldModel;
-import edu.cornell.gdiac.util.SoundController;
 
 
 public class OilEnemyModel extends EnemyModel {
@@ -24,7 +23,7 @@ public class OilEnemyModel extends EnemyModel {
     }
 
     public Vector2 attack(PlayerModel p, AILattice aiLattice) {
-        Vector2 dir = move(p.getPosition(), p.getDimension(), worldModel.getAILattice());
+        Vector2 dir = chase(p, worldModel.getAILattice());
 
         // Cool down before dropping another oil
         if (dropCooldown > 0) {
@@ -37,7 +36,7 @@ public class OilEnemyModel extends EnemyModel {
             if (distance <= DROP_DIST) {
                 worldModel.addOil(enemyPosition.x, enemyPosition.y);
                 dropCooldown = DROP_COOLDOWN;
-                SoundController.getInstance().play("audio/oildrip.wav", "audio/oildrip.wav", false, Assets.VOLUME * 6f);
+                worldModel.getContext().getSounds().play("audio/oildrip.wav", "audio/oildrip.wav", false, Assets.VOLUME * 6f);
             }
         }
         return dir;
@@ -45,7 +44,7 @@ public class OilEnemyModel extends EnemyModel {
 
     @Override
     public Vector2 move(Vector2 targetPos, Vector2 targetDims, AILattice aiLattice) {
-        if (getPosition().sub(targetPos).len() < STOP_DIST) {
+        if (getPosition().sub(targetPos).len() < stopDist) {
             return Vector2.Zero;
         }
         return super.move(targetPos, targetDims, aiLattice);
@@ -56,8 +55,8 @@ public class OilEnemyModel extends EnemyModel {
         super.draw(canvas);
         if (state == State.ATTACK && (dropCooldown / 15) % 2 == 0) {
             canvas.draw(EXCLAMATION,
-                    (getPosition().x - 0.5f) * worldModel.getScale().x,
-                    (getPosition().y + 0.5f) * worldModel.getScale().y);
+                    (getDrawX() - 0.5f) * worldModel.getScale().x,
+                    (getDrawY() + 0.5f) * worldModel.getScale().y);
         }
     }
 }
\ No newline at end of file
@@ -71,7 +71,7 @@ public class OilModel extends ImmovableModel {
     @Override
     public void draw(GameCanvas canvas) {
         if (texture != null) {
-            canvas.draw(texture,tint,origin.x,origin.y,getX() * drawScale.x, getY() * drawScale.y,
+            canvas.draw(texture,tint,origin.x,origin.y,getDrawX() * drawScale.x, getDrawY() * drawScale.y,
                     getAngle(),actualScale.x,actualScale.y);
         }
     }
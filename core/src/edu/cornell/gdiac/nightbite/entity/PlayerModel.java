@@ -5,10 +5,10 @@ import com.badlogic.gdx.graphics.g2d.TextureRegion;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.Fixture;
 import com.badlogic.gdx.physics.box2d.QueryCallback;
-import com.badlogic.gdx.physics.box2d.World;
 import edu.cornell.gdiac.nightbite.Assets;
 import edu.cornell.gdiac.nightbite.GameCanvas;
 import edu.cornell.gdiac.nightbite.KeyboardMap;
+import edu.cornell.gdiac.nightbite.WorldModel;
 import edu.cornell.gdiac.nightbite.obstacle.PolygonObstacle;
 import edu.cornell.gdiac.util.FilmStrip;
 import edu.cornell.gdiac.util.PooledList;
@@ -79,7 +79,7 @@ public class PlayerModel extends HumanoidModel {
     private boolean alternateShadow;
     /** wok hitbox */
     private PolygonObstacle wokHitbox;
-    private World world;
+    private WorldModel worldModel;
 
     private int PLAYER_REFLECT_DIST = 2;
     private int FIRECRACKER_REFLECT_DIST = 15;
@@ -88,7 +88,7 @@ public class PlayerModel extends HumanoidModel {
 
     private Vector2 cache;
 
-    public PlayerModel(float x, float y, float width, float height, World world, String playerTeam, HomeModel home) {
+    public PlayerModel(float x, float y, float width, float height, WorldModel worldModel, String playerTeam, HomeModel home) {
         super(
                 x, y, width, height,
                 Assets.getFilmStrip("character/Filmstrip/Player_1/Dash_FS_5_NoArms.png"),
@@ -105,6 +105,7 @@ public class PlayerModel extends HumanoidModel {
         cooldown = 0;
         boosting = 0;
 
+        this.worldModel = worldModel;
         this.home = home;
         team = playerTeam;
         setHomePosition(home.getPosition());
@@ -126,7 +127,7 @@ public class PlayerModel extends HumanoidModel {
     }
 
     public void playWalkSound() {
-        SoundController soundController = SoundController.getInstance();
+        SoundController soundController = worldModel.getContext().getSounds();
         if (state == MoveState.WALK && !soundController.isActive("audio/walking.wav")) {
             soundController.play("audio/walking.wav", "audio/walking.wav", true, Assets.VOLUME * 1.5f);
         } else if (state != MoveState.WALK && soundController.isActive("audio/walking.wav")) {
@@ -326,7 +327,7 @@ public class PlayerModel extends HumanoidModel {
                         && !firecracker.isDetonating()) {
                     Vector2 reflectDirection = new Vector2(firecrackerVector.nor().scl(FIRECRACKER_REFLECT_DIST));
                     firecracker.throwItem(reflectDirection);
-                    SoundController.getInstance().play("audio/whack4.wav", "audio/whack4.wav", false, Assets.VOLUME * 1.8f);
+                    worldModel.getContext().getSounds().play("audio/whack4.wav", "audio/whack4.wav", false, Assets.VOLUME * 1.8f);
                 }
             }
 
@@ -341,7 +342,7 @@ public class PlayerModel extends HumanoidModel {
                         ((EnemyModel) enemy).playerTakesItem();
                     }
                 }
-                SoundController.getInstance().play("audio/whack4.wav", "audio/whack4.wav", false, Assets.VOLUME * 1.8f);
+                worldModel.getContext().getSounds().play("audio/whack4.wav", "audio/whack4.wav", false, Assets.VOLUME * 1.8f);
             }
         }
     }
@@ -472,11 +473,11 @@ public class PlayerModel extends HumanoidModel {
     public void draw(GameCanvas canvas) {
         if (isAlive) {
             if (!isBoostCooldown() || alternateShadow) {
-                canvas.draw(shadow, Color.WHITE, origin.x - texture.getRegionWidth() / 4.0f, origin.y + texture.getRegionHeight() / 15.0f, getX() * drawScale.x, getY() * drawScale.y,
+                canvas.draw(shadow, Color.WHITE, origin.x - texture.getRegionWidth() / 4.0f, origin.y + texture.getRegionHeight() / 15.0f, getDrawX() * drawScale.x, getDrawY() * drawScale.y,
                         getAngle(), actualScale.x, actualScale.y);
             }
 
-            canvas.draw(arrow, Color.WHITE, arrow.getRegionWidth() / 2.0f, arrow.getRegionHeight() / 2.0f, getX() * drawScale.x + arrowXOffset, getY() * drawScale.y + arrowYOffset,
+            canvas.draw(arrow, Color.WHITE, arrow.getRegionWidth() / 2.0f, arrow.getRegionHeight() / 2.0f, getDrawX() * drawScale.x + arrowXOffset, getDrawY() * drawScale.y + arrowYOffset,
                     arrowAngle, actualScale.x, actualScale.y);
         }
 
@@ -496,10 +497,10 @@ public class PlayerModel extends HumanoidModel {
                 ox = texture.getRegionWidth() / 9.0f;
             }
             if (!swinging) {
-                canvas.draw(handheld, tint,ox,0,getX() * drawScale.x + originX, getY() * drawScale.y + originY,
+                canvas.draw(handheld, tint,ox,0,getDrawX() * drawScale.x + originX, getDrawY() * drawScale.y + originY,
                         getAngle() + angleOffset - (float) Math.PI/2,actualScale.x,actualScale.y);
             } else {
-                canvas.draw(handheld, tint,ox,0,getX() * drawScale.x + originX, getY() * drawScale.y + originY,
+                canvas.draw(handheld, tint,ox,0,getDrawX() * drawScale.x + originX, getDrawY() * drawScale.y + originY,
                         getAngle() + targetAngle - (float) Math.PI/2,actualScale.x,actualScale.y);
             }
         }
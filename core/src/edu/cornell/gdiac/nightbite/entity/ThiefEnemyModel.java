@@ -32,6 +32,7 @@ public class ThiefEnemyModel extends EnemyModel {
         setHoldTexture(Assets.getFilmStrip("character/Enemies/E3_64_holdfilmstrip.png"));
         setStopDist(0);
         setWalkThrust(8f);
+        setThinkRate(IDLE_THINK_INTERVAL, 2, LOD_RADIUS);
         aiClass = 4;
     }
 
@@ -47,7 +48,7 @@ public class ThiefEnemyModel extends EnemyModel {
         } else if (p.hasItem()) { // Attack phase 1 : Player is holding an item - chase to steal
             previousPhaseOne = true;
             setIsDoneAttacking(false);
-            dir = move(p.getPosition(), p.getDimension(), aiLattice);
+            dir = chase(p, aiLattice);
         } else if (!isDoneAttacking) { // Attack phase 2 : Stole the item - return item to origin
             // If changed phase, force AI to replan path to target item's origin location
             if (previousPhaseOne) {
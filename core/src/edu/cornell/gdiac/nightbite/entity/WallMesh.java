@@ -0,0 +1,96 @@
+package edu.cornell.gdiac.nightbite.entity;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+
+/**
+ * A grid of solid tiles that is merged into as few rectangles as it can be.
+ * <p>
+ * Walls are laid out one tile at a time, but giving each tile a body of its own fills the
+ * broadphase with fixtures that every step, ray cast and query has to wade through. Tiles are
+ * marked here as the level loads, and then meshed greedily: each rectangle grows as far right
+ * as it can, and then as far up as its whole width allows. A row of wall becomes one rectangle,
+ * and a block of wall only a few.
+ */
+public class WallMesh {
+    /** Tile coordinates of the bottom left corner of the grid */
+    private final int left, bottom;
+    /** Size of the grid in tiles */
+    private final int width, height;
+    /** Whether each tile is solid, indexed by x + y * width */
+    private final boolean[] solid;
+
+    /**
+     * Creates an empty grid of tiles.
+     *
+     * @param left   Tile x-coordinate of the leftmost column
+     * @param bottom Tile y-coordinate of the bottom row
+     * @param width  Number of columns
+     * @param height Number of rows
+     */
+    public WallMesh(int left, int bottom, int width, int height) {
+        this.left = left;
+        this.bottom = bottom;
+        this.width = width;
+        this.height = height;
+        solid = new boolean[width * height];
+    }
+
+    /** Marks the tile at (x, y) as solid. Tiles outside of the grid are ignored. */
+    public void add(int x, int y) {
+        int tx = x - left;
+        int ty = y - bottom;
+        if (tx >= 0 && tx < width && ty >= 0 && ty < height) {
+            solid[tx + ty * width] = true;
+        }
+    }
+
+    /**
+     * Returns rectangles that together cover every solid tile exactly once.
+     * <p>
+     * Each rectangle is in tile coordinates, with (x, y) the bottom left tile and the size
+     * counted in tiles.
+     */
+    public Array<Rectangle> build() {
+        Array<Rectangle> rectangles = new Array<>();
+        boolean[] covered = new boolean[solid.length];
+
+        for (int y = 0; y < height; y ++) {
+            for (int x = 0; x < width; x ++) {
+                if (!solid[x + y * width] || covered[x + y * width]) {
+                    continue;
+                }
+                int w = 1;
+                while (x + w < width && isOpen(x + w, y, covered)) {
+                    w ++;
+                }
+                int h = 1;
+                while (y + h < height && isRowOpen(x, y + h, w, covered)) {
+                    h ++;
+                }
+                for (int ty = y; ty < y + h; ty ++) {
+                    for (int tx = x; tx < x + w; tx ++) {
+                        covered[tx + ty * width] = true;
+                    }
+                }
+                rectangles.add(new Rectangle(x + left, y + bottom, w, h));
+            }
+        }
+        return rectangles;
+    }
+
+    /** Whether the tile at (x, y) is solid and not in a rectangle yet */
+    private boolean isOpen(int x, int y, boolean[] covered) {
+        return solid[x + y * width] && !covered[x + y * width];
+    }
+
+    /** Whether the w tiles starting at (x, y) are all solid and not in a rectangle yet */
+    private boolean isRowOpen(int x, int y, int w, boolean[] covered) {
+        for (int tx = x; tx < x + w; tx ++) {
+            if (!isOpen(tx, y, covered)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
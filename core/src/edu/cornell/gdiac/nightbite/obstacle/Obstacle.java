@@ -67,6 +67,13 @@ public abstract class Obstacle {
 	public int getAiClass() {
 		return aiClass;
 	}
+
+	/** Lattice cells this obstacle is stamped on in the AI dynamic map, -1 where there is none */
+	private final int[] aiCells = {-1, -1, -1, -1};
+
+	public int[] getAiCells() {
+		return aiCells;
+	}
 	/// Track garbage collection status
 	/** Whether the object should be removed from the world on next pass */
 	private boolean toRemove;
@@ -85,6 +92,14 @@ public abstract class Obstacle {
 
 	public boolean draw = true;
 
+	/// Interpolation
+	/** Position before the most recent physics step */
+	private final Vector2 previousPosition = new Vector2();
+	/** Whether previousPosition was taken since the object last teleported */
+	private boolean hasPrevious;
+	/** How far to draw this object between its previous and current positions, from 0 to 1 */
+	private float interpolation = 1;
+
 	/** Whether an object is supposed to move */
 	// TODO: Honestly maybe this should be replaced with whether it is static. But I'm not quite sure
 	// TODO: that's a reliable way of doing it (eg: what if we change the position of a static object? would we?)
@@ -1017,6 +1032,52 @@ public abstract class Obstacle {
 	public void update(float delta) { 
 	}
 
+	/**
+	 * Remembers the current position, so that frames drawn before the next physics step can
+	 * blend between it and the position after that step.
+	 */
+	public void savePosition() {
+		previousPosition.set(getX(), getY());
+		hasPrevious = true;
+	}
+
+	/**
+	 * Forgets the saved position, so that the object is drawn exactly where it is until the
+	 * next physics step. Call this after a teleport, so that it is not smeared across a frame.
+	 */
+	public void clearPosition() {
+		hasPrevious = false;
+	}
+
+	/**
+	 * Sets how far between the previous and current physics step this object is drawn
+	 *
+	 * @param alpha 0 for the previous step, 1 for the current one
+	 */
+	public void setInterpolation(float alpha) {
+		interpolation = alpha;
+	}
+
+	/**
+	 * Returns the x-coordinate this object should be drawn at, in physics units
+	 *
+	 * @return the x-coordinate blended between the last two physics steps
+	 */
+	public float getDrawX() {
+		float x = getX();
+		return hasPrevious ? previousPosition.x + (x - previousPosition.x) * interpolation : x;
+	}
+
+	/**
+	 * Returns the y-coordinate this object should be drawn at, in physics units
+	 *
+	 * @return the y-coordinate blended between the last two physics steps
+	 */
+	public float getDrawY() {
+		float y = getY();
+		return hasPrevious ? previousPosition.y + (y - previousPosition.y) * interpolation : y;
+	}
+
 	/**
 	 * Draws the texture physics object.
 	 *
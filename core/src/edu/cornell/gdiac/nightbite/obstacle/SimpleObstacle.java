@@ -788,7 +788,7 @@ public abstract class SimpleObstacle extends Obstacle {
 			// Vector2 newPos = getPosition().cpy();
 			// transformToPixel.applyTo(newPos);
 			// System.out.println("old: " + getPosition() + " new: " + newPos);
-			canvas.draw(texture,Color.WHITE,origin.x,origin.y,getX() * drawScale.x, getY() * drawScale.y,
+			canvas.draw(texture,Color.WHITE,origin.x,origin.y,getDrawX() * drawScale.x, getDrawY() * drawScale.y,
 					getAngle(),actualScale.x,actualScale.y);
 		}
 	}
@@ -0,0 +1,220 @@
+package edu.cornell.gdiac.util;
+
+/*
+ * NullSource.java
+ *
+ * A light source for worlds that have no RayHandler, such as headless simulations.
+ * Box2DLights cannot make a light without a RayHandler, and a RayHandler cannot be made
+ * without a graphics context.  This class keeps the settings of a light, so that game
+ * code can treat it like any other, but never casts a ray or touches the GPU.
+ */
+
+import box2dLight.*;
+import com.badlogic.gdx.graphics.*;
+import com.badlogic.gdx.math.*;
+import com.badlogic.gdx.physics.box2d.*;
+
+/**
+ * A light that remembers its settings but is never drawn
+ */
+public class NullSource implements LightSource {
+    private boolean active = true;
+    private final Color color = new Color(DEFAULT_COLOR);
+    private float distance;
+    private float direction;
+    private final Vector2 position = new Vector2();
+    private final Vector2 offset = new Vector2();
+    private boolean xray;
+    private boolean staticLight;
+    private boolean soft = true;
+    private float softShadowLength;
+    private boolean ignoreBody;
+    private Filter collisions;
+    private Body body;
+
+    /**
+     * Creates a light with the given radius and position
+     *
+     * @param distance  the light radius
+     * @param x         the horizontal position in world coordinates
+     * @param y         the vertical position in world coordinates
+     */
+    public NullSource(float distance, float x, float y) {
+        this.distance = distance;
+        this.softShadowLength = distance * 0.1f;
+        position.set(x, y);
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public void setActive(boolean active) {
+        this.active = active;
+    }
+
+    public Color getColor() {
+        return color;
+    }
+
+    public void setColor(Color newColor) {
+        color.set(newColor != null ? newColor : DEFAULT_COLOR);
+    }
+
+    public void setColor(float r, float g, float b, float a) {
+        color.set(r, g, b, a);
+    }
+
+    public float getDistance() {
+        return distance;
+    }
+
+    public void setDistance(float dist) {
+        distance = dist;
+    }
+
+    public float getDirection() {
+        return direction;
+    }
+
+    public void setDirection(float directionDegree) {
+        direction = directionDegree;
+    }
+
+    /**
+     * Returns the position of this light
+     *
+     * If the light is attached to a body, this follows the body.
+     *
+     * @return the position of this light
+     */
+    public Vector2 getPosition() {
+        if (body != null) {
+            position.set(body.getWorldPoint(offset));
+        }
+        return position;
+    }
+
+    public float getX() {
+        return getPosition().x;
+    }
+
+    public float getY() {
+        return getPosition().y;
+    }
+
+    public void setPosition(float x, float y) {
+        position.set(x, y);
+    }
+
+    public void setPosition(Vector2 position) {
+        this.position.set(position);
+    }
+
+    public boolean isXray() {
+        return xray;
+    }
+
+    public void setXray(boolean xray) {
+        this.xray = xray;
+    }
+
+    public boolean isStaticLight() {
+        return staticLight;
+    }
+
+    public void setStaticLight(boolean staticLight) {
+        this.staticLight = staticLight;
+    }
+
+    public boolean isSoft() {
+        return soft;
+    }
+
+    public void setSoft(boolean soft) {
+        this.soft = soft;
+    }
+
+    public float getSoftShadowLength() {
+        return softShadowLength;
+    }
+
+    public void setSoftnessLength(float softShadowLength) {
+        this.softShadowLength = softShadowLength;
+    }
+
+    public int getRayNum() {
+        return 0;
+    }
+
+    /**
+     * Does nothing, as this light never casts rays
+     *
+     * @param rayHandler the RayHandler
+     */
+    public void add(RayHandler rayHandler) {
+    }
+
+    public void remove() {
+        remove(true);
+    }
+
+    public void remove(boolean doDispose) {
+        body = null;
+    }
+
+    public Body getBody() {
+        return body;
+    }
+
+    public void attachToBody(Body body) {
+        attachToBody(body, 0f, 0f, 0f);
+    }
+
+    public void attachToBody(Body body, float dx, float dy) {
+        attachToBody(body, dx, dy, 0f);
+    }
+
+    public void attachToBody(Body body, float offsetX, float offSetY, float degrees) {
+        this.body = body;
+        offset.set(offsetX, offSetY);
+        direction = degrees;
+    }
+
+    public boolean getIgnoreAttachedBody() {
+        return ignoreBody;
+    }
+
+    public void setIgnoreAttachedBody(boolean flag) {
+        ignoreBody = flag;
+    }
+
+    public Filter getContactFilter() {
+        return collisions;
+    }
+
+    public void setContactFilter(Filter filter) {
+        collisions = filter;
+    }
+
+    public void setContactFilter(short categoryBits, short groupIndex, short maskBits) {
+        collisions = new Filter();
+        collisions.categoryBits = categoryBits;
+        collisions.groupIndex = groupIndex;
+        collisions.maskBits = maskBits;
+    }
+
+    /**
+     * Returns true if given point is within the radius of this light
+     *
+     * With no rays, walls do not cast shadows.
+     *
+     * @param x	the horizontal position of point in world coordinates
+     * @param y the vertical position of point in world coordinates
+     *
+     * @return true if given point is within the radius of this light
+     */
+    public boolean contains(float x, float y) {
+        return getPosition().dst2(x, y) <= distance * distance;
+    }
+}
@@ -7,10 +7,9 @@
  * do to get everything working properly.  This class hides all of that
  * for you and makes it easy to play sound effects.
  * 
- * Note that this class is an instance of a Singleton.  There is only one
- * SoundController at a time.  The constructor is hidden and you cannot
- * make your own sound controller.  Instead, you use the method getInstance()
- * to get the current sound controller.
+ * The game uses one shared instance, from the method getInstance(), which
+ * is where loaded sounds are allocated.  Worlds that should be silent, such
+ * as headless simulations, can make their own controller with no sounds.
  *
  * Author: Walker M. White
  * Based on original PhysicsDemo Lab by Don Holden, 2007
@@ -26,7 +25,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 
 /**
- * A singleton class for controlling sound effects in LibGDX
+ * A class for controlling sound effects in LibGDX
  * 
  * Sound sucks in LibGDX for three reasons.  (1) You have to keep track of
  * a mysterious number every time you play a sound.  (2) You have no idea
@@ -71,8 +70,11 @@ public class SoundController {
 
 	/**
 	 * Creates a new SoundController with the default settings.
+	 *
+	 * The controller has no sounds until they are allocated, and quietly ignores
+	 * requests to play sounds it does not have.
 	 */
-	private SoundController() {
+	public SoundController() {
 		soundbank = new HashMap<>();
 		actives = new HashMap<>();
 		collection = new Array<>();
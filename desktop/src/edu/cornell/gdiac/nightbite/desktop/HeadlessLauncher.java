@@ -0,0 +1,49 @@
+/*
+ * HeadlessLauncher.java
+ *
+ * Runs a level with no window, no sound and nobody at the controls, as fast as the CPU
+ * allows.  This is for balancing runs, soak tests and benchmarks on machines with no GPU.
+ * It must be run from the assets folder, like the game itself.
+ */
+package edu.cornell.gdiac.nightbite.desktop;
+
+import com.badlogic.gdx.backends.headless.HeadlessApplication;
+import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
+import edu.cornell.gdiac.nightbite.HeadlessRoot;
+
+/**
+ * The main class of a headless simulation.
+ * <p>
+ * Usage: HeadlessLauncher level [item] [ticks] [runs] [seed] [threads]
+ * <p>
+ * The level is a path such as jsons/01_showcase_tutorial_basic.json. The item theme
+ * defaults to egg. Each run stops when the level ends, or after the given number of
+ * ticks if that is positive. Run i is seeded with seed + i, and a seed of 0 leaves every
+ * run unseeded. Runs are played that many threads at a time, by default one per core.
+ */
+public class HeadlessLauncher {
+
+	/**
+	 * Starts a new HeadlessApplication that never sleeps between ticks.
+	 *
+	 * @param arg Command line arguments
+	 */
+	public static void main (String[] arg) {
+		if (arg.length < 1) {
+			System.err.println("Usage: HeadlessLauncher level [item] [ticks] [runs] [seed] [threads]");
+			System.exit(1);
+		}
+		String level = arg[0];
+		String item = arg.length > 1 ? arg[1] : "egg";
+		int ticks = arg.length > 2 ? Integer.parseInt(arg[2]) : 0;
+		int runs = arg.length > 3 ? Integer.parseInt(arg[3]) : 1;
+		long seed = arg.length > 4 ? Long.parseLong(arg[4]) : 0;
+		int threads = arg.length > 5 ? Integer.parseInt(arg[5]) : Runtime.getRuntime().availableProcessors();
+
+		HeadlessApplicationConfiguration config = new HeadlessApplicationConfiguration();
+		// Render as fast as possible rather than at 60 frames per second
+		config.renderInterval = 0;
+
+		new HeadlessApplication(new HeadlessRoot(level, item, ticks, runs, seed, threads), config);
+	}
+}